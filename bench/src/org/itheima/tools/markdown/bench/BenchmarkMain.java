@@ -0,0 +1,49 @@
+package org.itheima.tools.markdown.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the engine and pipeline benchmarks with the GC profiler, so every
+ * result carries {@code gc.alloc.rate.norm} (bytes allocated per operation)
+ * next to throughput and the sample-time percentiles.
+ * <p>
+ * The benchmarks live outside {@code src} because they need JMH, which is not
+ * part of {@code lib}. Build them with {@code jmh-core} and
+ * {@code jmh-generator-annprocess} (1.19 or later) on the classpath:
+ * <pre>
+ * javac -cp "lib/*:jmh/*" -d bench/classes $(find src bench/src -name '*.java')
+ * cp -r src/org/itheima/tools/markdown/{css,js,vm} bench/classes/org/itheima/tools/markdown/
+ * cp src/org/itheima/tools/markdown/vm/html.vm bench/classes/
+ * java -cp "bench/classes:lib/*:jmh/*" org.itheima.tools.markdown.bench.BenchmarkMain [jmh options]
+ * </pre>
+ * Any standard JMH option may be given, e.g. {@code -p engine=flexmark} or
+ * {@code EngineBenchmark}; results are also written to {@code jmh-result.json}.
+ * On Java 9 and later pegdown additionally needs
+ * {@code -jvmArgsAppend --add-opens=java.base/java.lang=ALL-UNNAMED}.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include(EngineBenchmark.class.getSimpleName())
+                    .include(PathologicalBenchmark.class.getSimpleName())
+                    .include(PipelineBenchmark.class.getSimpleName());
+        }
+        Options options = builder
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-result.json")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,140 @@
+package org.itheima.tools.markdown.bench;
+
+import java.util.Random;
+
+/**
+ * Deterministic markdown documents of a requested size, one shape per {@link Kind}.
+ */
+public final class Corpus {
+
+    public enum Kind {
+        /** Paragraphs, headings, emphasis and links. */
+        PROSE,
+        /** Fenced and indented code blocks with a little prose between them. */
+        CODE,
+        /** GFM tables. */
+        TABLES,
+        /** Bullet and ordered lists nested several levels deep. */
+        NESTED_LISTS,
+        /**
+         * Deep emphasis and bracket nesting that makes PEG parsers backtrack;
+         * pegdown usually gives up with a {@code ParsingTimeoutException}.
+         */
+        PATHOLOGICAL
+    }
+
+    private static final String[] WORDS = {
+            "markdown", "render", "engine", "parser", "node", "table", "list", "course", "chapter", "java",
+            "spring", "service", "request", "response", "cache", "thread", "stream", "buffer", "index", "page"
+    };
+
+    private Corpus() {
+    }
+
+    public static String generate(Kind kind, int size) {
+        Random random = new Random(42);
+        StringBuilder out = new StringBuilder(size + 256);
+        int section = 0;
+        while (out.length() < size) {
+            switch (kind) {
+                case PROSE:
+                    prose(out, random, section++);
+                    break;
+                case CODE:
+                    code(out, random, section++);
+                    break;
+                case TABLES:
+                    table(out, random, section++);
+                    break;
+                case NESTED_LISTS:
+                    lists(out, random, 0, 4);
+                    out.append('\n');
+                    break;
+                default:
+                    pathological(out, random);
+                    break;
+            }
+        }
+        return out.toString();
+    }
+
+    private static void prose(StringBuilder out, Random random, int section) {
+        out.append(section % 5 == 0 ? "# " : "## ").append("Section ").append(section).append("\n\n");
+        for (int p = 0; p < 3; p++) {
+            for (int w = 0; w < 60; w++) {
+                String word = word(random);
+                int style = random.nextInt(20);
+                if (style == 0) {
+                    out.append('*').append(word).append('*');
+                } else if (style == 1) {
+                    out.append("**").append(word).append("**");
+                } else if (style == 2) {
+                    out.append('[').append(word).append("](http://example.com/").append(word).append(')');
+                } else if (style == 3) {
+                    out.append('`').append(word).append('`');
+                } else {
+                    out.append(word);
+                }
+                out.append(w % 12 == 11 ? ".\n" : " ");
+            }
+            out.append("\n\n");
+        }
+    }
+
+    private static void code(StringBuilder out, Random random, int section) {
+        out.append("### Example ").append(section).append("\n\n");
+        out.append("```java\n");
+        for (int line = 0; line < 30; line++) {
+            out.append("    public String ").append(word(random)).append(line)
+                    .append("(String value) { return value + \"").append(word(random)).append("\"; } // ")
+                    .append(word(random)).append('\n');
+        }
+        out.append("```\n\n");
+        out.append("Text between the blocks mentions `").append(word(random)).append("`.\n\n");
+        for (int line = 0; line < 10; line++) {
+            out.append("    int ").append(word(random)).append(" = ").append(random.nextInt(1000)).append(";\n");
+        }
+        out.append('\n');
+    }
+
+    private static void table(StringBuilder out, Random random, int section) {
+        out.append("Table ").append(section).append("\n\n");
+        out.append("| name | type | default | description |\n");
+        out.append("|------|:----:|--------:|-------------|\n");
+        for (int row = 0; row < 25; row++) {
+            out.append("| ").append(word(random)).append(" | `").append(word(random)).append("` | ")
+                    .append(random.nextInt(100)).append(" | ").append(word(random)).append(' ')
+                    .append(word(random)).append(" *").append(word(random)).append("* |\n");
+        }
+        out.append('\n');
+    }
+
+    private static void lists(StringBuilder out, Random random, int depth, int maxDepth) {
+        for (int item = 0; item < 4; item++) {
+            for (int i = 0; i < depth; i++) {
+                out.append("    ");
+            }
+            out.append(depth % 2 == 0 ? "- " : (item + 1) + ". ").append(word(random)).append(' ')
+                    .append(word(random)).append('\n');
+            if (depth < maxDepth && item % 2 == 0) {
+                lists(out, random, depth + 1, maxDepth);
+            }
+        }
+    }
+
+    private static void pathological(StringBuilder out, Random random) {
+        int depth = 8 + random.nextInt(8);
+        for (int i = 0; i < depth; i++) {
+            out.append(i % 2 == 0 ? "*" : "[");
+        }
+        out.append(word(random));
+        for (int i = 0; i < depth; i++) {
+            out.append(i % 3 == 0 ? "_" : "(");
+        }
+        out.append("\n\n");
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
@@ -0,0 +1,55 @@
+package org.itheima.tools.markdown.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.itheima.tools.markdown.Engine;
+import org.itheima.tools.markdown.Markdown;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Markdown#parse(String)} of each engine over the corpus size sweep.
+ * The pathological input is measured by {@link PathologicalBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class EngineBenchmark {
+
+    @Param({"pegdown", "flexmark", "commonmark", "txtmark", "auto"})
+    public String engine;
+
+    @Param({"PROSE", "CODE", "TABLES", "NESTED_LISTS"})
+    public Corpus.Kind kind;
+
+    @Param({"1024", "16384", "262144"})
+    public int size;
+
+    private Markdown markdown;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        this.markdown = Engine.forName(this.engine).create();
+        this.text = Corpus.generate(this.kind, this.size);
+        // first call per thread builds the parboiled parser for pegdown
+        this.markdown.parse(this.text);
+    }
+
+    @Benchmark
+    public String parse() {
+        return this.markdown.parse(this.text);
+    }
+}
@@ -0,0 +1,65 @@
+package org.itheima.tools.markdown.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.itheima.tools.markdown.MarkdownUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The whole {@link MarkdownUtils#toHtml(java.io.InputStream, OutputStream, String)}
+ * pipeline, writing into a sink that only counts bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class PipelineBenchmark {
+
+    @Param({"PROSE", "CODE", "TABLES", "NESTED_LISTS"})
+    public Corpus.Kind kind;
+
+    @Param({"1024", "16384", "262144"})
+    public int size;
+
+    private byte[] markdown;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.markdown = Corpus.generate(this.kind, this.size).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public void toHtml(Blackhole blackhole) throws IOException {
+        CountingSink sink = new CountingSink();
+        MarkdownUtils.toHtml(new ByteArrayInputStream(this.markdown), sink, "bench");
+        blackhole.consume(sink.count);
+    }
+
+    private static class CountingSink extends OutputStream {
+        long count;
+
+        public void write(int b) {
+            this.count++;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            this.count += len;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+@echo off
+rem Runs the converter from a distribution laid out as md.jar, lib\ and bin\.
+rem
+rem   bin\md -train     records md.jsa, a class-data-sharing archive of the
+rem                     classes a conversion loads (Java 13 or later)
+rem   bin\md args...    runs App, mapping md.jsa when it exists
+rem
+rem Rerun -train after upgrading the JDK or any jar; the JVM ignores an archive
+rem that no longer matches and starts normally. Older JVMs ignore the archive
+rem options, so no version check is needed here.
+setlocal
+
+set "MD_HOME=%~dp0.."
+set "CP=%MD_HOME%\md.jar;%MD_HOME%\lib\*"
+set "ARCHIVE=%MD_HOME%\md.jsa"
+
+if defined JAVA_HOME (
+    set "JAVA=%JAVA_HOME%\bin\java"
+) else (
+    set "JAVA=java"
+)
+
+rem pegdown's parser generator defines classes through java.lang.ClassLoader,
+rem which Java 16 and later only allow when java.lang is opened to it; Java 8
+rem and older, reporting "1.x", reject the option
+set "OPENS="
+set "JAVA_VERSION="
+for /f "tokens=3" %%v in ('"%JAVA%" -version 2^>^&1 ^| findstr /i "version"') do if not defined JAVA_VERSION set "JAVA_VERSION=%%~v"
+if defined JAVA_VERSION if not "%JAVA_VERSION:~0,2%"=="1." set "OPENS=--add-opens java.base/java.lang=ALL-UNNAMED"
+
+if "%~1"=="-train" (
+    if exist "%ARCHIVE%" del "%ARCHIVE%"
+    "%JAVA%" -XX:ArchiveClassesAtExit="%ARCHIVE%" -Xlog:cds=off,cds+dynamic=off %OPENS% %JAVA_OPTS% -cp "%CP%" org.itheima.tools.markdown.App -train
+    if not exist "%ARCHIVE%" echo md -train needs Java 13 or later 1>&2
+    goto :eof
+)
+
+if exist "%ARCHIVE%" (
+    "%JAVA%" -XX:+IgnoreUnrecognizedVMOptions -XX:SharedArchiveFile="%ARCHIVE%" -Xshare:auto -Xlog:cds=off,cds+dynamic=off %OPENS% %JAVA_OPTS% -cp "%CP%" org.itheima.tools.markdown.App %*
+) else (
+    "%JAVA%" %OPENS% %JAVA_OPTS% -cp "%CP%" org.itheima.tools.markdown.App %*
+)
@@ -1,15 +1,19 @@
 package org.eclipse.jdt.internal.jarinjarloader;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.CodeSource;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.jar.Attributes;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 
@@ -27,20 +31,36 @@ public class JarRsrcLoader {
     }
 
 
+    /**
+     * System property choosing where nested jars are loaded from: a directory to extract them to (by default
+     * {@code .jarinjar} in the user's home directory), {@code memory} to hold them inflated in memory, or
+     * {@code rsrc} to read them through {@code jar:rsrc:} URLs.
+     */
+    static final String CACHE_PROPERTY = "jarinjar.cache";
+
+    /**
+     * System property; when true, class loading statistics are printed to standard error at exit.
+     */
+    static final String STATS_PROPERTY = "jarinjar.stats";
+
     public static void main(String[] args) throws ClassNotFoundException, IllegalArgumentException, IllegalAccessException, InvocationTargetException, SecurityException, NoSuchMethodException, IOException {
-        ManifestInfo mi = getManifestInfo();
+        File outerJar = getOuterJar();
+        ManifestInfo mi = getManifestInfo(outerJar);
         ClassLoader cl = Thread.currentThread().getContextClassLoader();
         URL.setURLStreamHandlerFactory(new RsrcURLStreamHandlerFactory(cl));
-        URL[] rsrcUrls = new URL[mi.rsrcClassPath.length];
-        for (int i = 0; i < mi.rsrcClassPath.length; i++) {
-            String rsrcPath = mi.rsrcClassPath[i];
-            if (rsrcPath.endsWith("/")) {
-                rsrcUrls[i] = new URL("rsrc:" + rsrcPath);
-            } else {
-                rsrcUrls[i] = new URL("jar:rsrc:" + rsrcPath + "!/");
+        ClassLoader jceClassLoader = openNestedJars(outerJar, mi.rsrcClassPath);
+        if (jceClassLoader == null) {
+            URL[] rsrcUrls = new URL[mi.rsrcClassPath.length];
+            for (int i = 0; i < mi.rsrcClassPath.length; i++) {
+                String rsrcPath = mi.rsrcClassPath[i];
+                if (rsrcPath.endsWith("/")) {
+                    rsrcUrls[i] = new URL("rsrc:" + rsrcPath);
+                } else {
+                    rsrcUrls[i] = new URL("jar:rsrc:" + rsrcPath + "!/");
+                }
             }
+            jceClassLoader = new URLClassLoader(rsrcUrls, parentLoader());
         }
-        ClassLoader jceClassLoader = new URLClassLoader(rsrcUrls, null);
         Thread.currentThread().setContextClassLoader(jceClassLoader);
         Class c = Class.forName(mi.rsrcMainClass, true, jceClassLoader);
         Method main = c.getMethod("main", new Class[]{args.getClass()});
@@ -48,6 +68,114 @@ public class JarRsrcLoader {
     }
 
 
+    /**
+     * @return a {@link NestedJarClassLoader} as configured by {@link #CACHE_PROPERTY}, falling back from the cache
+     * directory to memory; null for {@code jar:rsrc:} URLs
+     */
+    private static ClassLoader openNestedJars(File outerJar, String[] rsrcClassPath) {
+        String cache = System.getProperty(CACHE_PROPERTY);
+        if (outerJar == null || "rsrc".equals(cache)) {
+            return null;
+        }
+        File cacheDir = null;
+        if (cache == null) {
+            cacheDir = new File(System.getProperty("user.home"), ".jarinjar");
+        } else if (!"memory".equals(cache)) {
+            cacheDir = new File(cache);
+        }
+        NestedJarClassLoader loader = null;
+        try {
+            loader = NestedJarClassLoader.open(outerJar, rsrcClassPath, cacheDir, parentLoader());
+        } catch (IOException e) {
+            if (cacheDir == null) {
+                System.err.println("Loading nested jars through rsrc URLs: " + e);
+                return null;
+            }
+            System.err.println("Holding nested jars in memory: " + e);
+            try {
+                loader = NestedJarClassLoader.open(outerJar, rsrcClassPath, null, parentLoader());
+            } catch (IOException e2) {
+                System.err.println("Loading nested jars through rsrc URLs: " + e2);
+                return null;
+            }
+        }
+        if (Boolean.getBoolean(STATS_PROPERTY)) {
+            final NestedJarClassLoader stats = loader;
+            Runtime.getRuntime().addShutdownHook(new Thread("jarinjar-stats") {
+                public void run() {
+                    System.err.println(stats);
+                }
+            });
+        }
+        return loader;
+    }
+
+    /**
+     * @return the platform loader on Java 9 and later, whose modules such as java.sql and jdk.httpserver the
+     * bootstrap loader cannot see; null, the bootstrap loader, on Java 8
+     */
+    private static ClassLoader parentLoader() {
+        try {
+            return (ClassLoader) ClassLoader.class.getMethod("getPlatformClassLoader").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the jar this class was loaded from, or null if it was not loaded from a local jar
+     */
+    private static File getOuterJar() {
+        try {
+            CodeSource source = JarRsrcLoader.class.getProtectionDomain().getCodeSource();
+            if (source == null || source.getLocation() == null || !"file".equals(source.getLocation().getProtocol())) {
+                return null;
+            }
+            File file = new File(source.getLocation().toURI());
+            return file.isFile() ? file : null;
+        } catch (URISyntaxException | SecurityException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the manifest of {@code outerJar} first, instead of every manifest on the class path.
+     */
+    private static ManifestInfo getManifestInfo(File outerJar) throws IOException {
+        if (outerJar != null) {
+            try {
+                JarFile jar = new JarFile(outerJar, false);
+                try {
+                    Manifest manifest = jar.getManifest();
+                    if (manifest != null) {
+                        ManifestInfo result = getManifestInfo(manifest);
+                        if (result != null) {
+                            return result;
+                        }
+                    }
+                } finally {
+                    jar.close();
+                }
+            } catch (IOException exception) {
+            }
+        }
+        return getManifestInfo();
+    }
+
+    private static ManifestInfo getManifestInfo(Manifest manifest) {
+        ManifestInfo result = new ManifestInfo(null);
+        Attributes mainAttribs = manifest.getMainAttributes();
+        result.rsrcMainClass = mainAttribs.getValue("Rsrc-Main-Class");
+        String rsrcCP = mainAttribs.getValue("Rsrc-Class-Path");
+        if (rsrcCP == null)
+            rsrcCP = "";
+        result.rsrcClassPath = splitSpaces(rsrcCP);
+        if (result.rsrcMainClass != null && !result.rsrcMainClass.trim().equals("")) {
+            return result;
+        }
+        return null;
+    }
+
     private static ManifestInfo getManifestInfo() throws IOException {
         Enumeration resEnum = Thread.currentThread().getContextClassLoader().getResources("META-INF/MANIFEST.MF");
         while (resEnum.hasMoreElements()) {
@@ -55,15 +183,8 @@ public class JarRsrcLoader {
                 URL url = (URL) resEnum.nextElement();
                 InputStream is = url.openStream();
                 if (is != null) {
-                    ManifestInfo result = new ManifestInfo(null);
-                    Manifest manifest = new Manifest(is);
-                    Attributes mainAttribs = manifest.getMainAttributes();
-                    result.rsrcMainClass = mainAttribs.getValue("Rsrc-Main-Class");
-                    String rsrcCP = mainAttribs.getValue("Rsrc-Class-Path");
-                    if (rsrcCP == null)
-                        rsrcCP = "";
-                    result.rsrcClassPath = splitSpaces(rsrcCP);
-                    if (result.rsrcMainClass != null && !result.rsrcMainClass.trim().equals("")) {
+                    ManifestInfo result = getManifestInfo(new Manifest(is));
+                    if (result != null) {
                         return result;
                     }
                 }
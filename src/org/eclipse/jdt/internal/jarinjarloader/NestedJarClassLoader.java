@@ -0,0 +1,525 @@
+package org.eclipse.jdt.internal.jarinjarloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Loads classes and resources from the jars nested in a runnable jar
+ * without going through {@code jar:rsrc:} URLs, which inflate a nested jar
+ * again and scan it linearly for every lookup.
+ * <p>
+ * The nested jars are indexed once by directory, so a class is looked up
+ * only in the jars holding its package. With a cache directory, they are
+ * extracted there under their CRC-32 and served by {@link JarFile}; a cached
+ * copy is used only while its size and modification time match the nested
+ * entry, so a truncated or rewritten file is extracted again without reading
+ * every cached jar on each start. Without one, each nested jar is held
+ * inflated in memory.
+ * <p>
+ * The loader is parallel capable: classes in different packages or jars are
+ * defined concurrently. It counts the classes it defines and the time spent
+ * reading and defining them.
+ */
+public class NestedJarClassLoader extends ClassLoader {
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    /** In search order; the index lists each directory's sources in this order too. */
+    private final List<Source> sources;
+    /** Entry directory, such as {@code org/pegdown}, to the sources holding entries in it. */
+    private final Map<String, Source[]> index;
+    private final Map<String, Boolean> packages = new ConcurrentHashMap<>();
+
+    private final long openNanos;
+    private final AtomicInteger classes = new AtomicInteger();
+    private final AtomicLong classNanos = new AtomicLong();
+    private final AtomicLong classBytes = new AtomicLong();
+
+    private NestedJarClassLoader(List<Source> sources, long openNanos, ClassLoader parent) {
+        super(parent);
+        this.sources = sources;
+        this.openNanos = openNanos;
+        Map<String, List<Source>> byDirectory = new HashMap<>();
+        for (Source source : sources) {
+            for (String directory : source.directories()) {
+                List<Source> list = byDirectory.get(directory);
+                if (list == null) {
+                    list = new ArrayList<>(1);
+                    byDirectory.put(directory, list);
+                }
+                list.add(source);
+            }
+        }
+        Map<String, Source[]> index = new HashMap<>(byDirectory.size() * 2);
+        for (Map.Entry<String, List<Source>> entry : byDirectory.entrySet()) {
+            index.put(entry.getKey(), entry.getValue().toArray(new Source[entry.getValue().size()]));
+        }
+        this.index = index;
+    }
+
+    /**
+     * @param outerJar      the runnable jar
+     * @param rsrcClassPath its {@code Rsrc-Class-Path}: nested jars, and directories ending in {@code /}
+     * @param cacheDir      where nested jars are extracted; null to hold them in memory
+     * @param parent        parent loader; null for the bootstrap loader
+     */
+    public static NestedJarClassLoader open(File outerJar, String[] rsrcClassPath, File cacheDir, ClassLoader parent)
+            throws IOException {
+        long start = System.nanoTime();
+        List<Source> sources = new ArrayList<>(rsrcClassPath.length);
+        JarFile outer = new JarFile(outerJar);
+        try {
+            for (String path : rsrcClassPath) {
+                if (path.endsWith("/")) {
+                    String prefix = path.equals("./") ? "" : path;
+                    sources.add(new DirectorySource(outerJar, prefix));
+                    continue;
+                }
+                JarEntry entry = outer.getJarEntry(path);
+                if (entry == null) {
+                    throw new IOException("No " + path + " in " + outerJar);
+                }
+                if (cacheDir != null) {
+                    sources.add(new FileSource(extract(outer, entry, cacheDir)));
+                } else {
+                    InputStream in = outer.getInputStream(entry);
+                    try {
+                        sources.add(new MemorySource(outerJar, path, in));
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Source source : sources) {
+                source.close();
+            }
+            throw e;
+        } finally {
+            outer.close();
+        }
+        return new NestedJarClassLoader(sources, System.nanoTime() - start, parent);
+    }
+
+    /**
+     * @return the cached copy of {@code entry}, extracted unless a copy with its size and time exists
+     */
+    private static File extract(JarFile outer, JarEntry entry, File cacheDir) throws IOException {
+        String name = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+        String base = name.endsWith(".jar") ? name.substring(0, name.length() - 4) : name;
+        long crc = entry.getCrc();
+        long time = entry.getTime();
+        File cached = new File(cacheDir, base + "-" + String.format("%08x", crc) + ".jar");
+        if (crc != -1 && time != -1 && cached.length() == entry.getSize() && cached.lastModified() == time) {
+            return cached;
+        }
+        Files.createDirectories(cacheDir.toPath());
+        // the cached name is long enough for a temp file prefix, a nested jar's base name may not be
+        File temp = File.createTempFile(cached.getName(), ".tmp", cacheDir);
+        try {
+            CheckedInputStream in = new CheckedInputStream(outer.getInputStream(entry), new CRC32());
+            try {
+                OutputStream out = new FileOutputStream(temp);
+                try {
+                    copy(in, out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            if (crc != -1 && in.getChecksum().getValue() != crc) {
+                throw new IOException("Checksum mismatch extracting " + entry.getName());
+            }
+            if (time != -1) {
+                temp.setLastModified(time);
+            }
+            try {
+                Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+        return cached;
+    }
+
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        long start = System.nanoTime();
+        String path = name.replace('.', '/').concat(".class");
+        Source[] candidates = this.index.get(directory(path));
+        if (candidates != null) {
+            for (Source source : candidates) {
+                byte[] bytes;
+                try {
+                    bytes = source.read(path);
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+                if (bytes == null) {
+                    continue;
+                }
+                int dot = name.lastIndexOf('.');
+                if (dot > 0) {
+                    definePackage(name.substring(0, dot), source);
+                }
+                Class<?> c = defineClass(name, bytes, 0, bytes.length, source.domain(this));
+                this.classes.incrementAndGet();
+                this.classBytes.addAndGet(bytes.length);
+                this.classNanos.addAndGet(System.nanoTime() - start);
+                return c;
+            }
+        }
+        throw new ClassNotFoundException(name);
+    }
+
+    private void definePackage(String name, Source source) {
+        if (this.packages.putIfAbsent(name, Boolean.TRUE) != null) {
+            return;
+        }
+        Manifest manifest = source.manifest();
+        try {
+            if (manifest == null) {
+                definePackage(name, null, null, null, null, null, null, null);
+                return;
+            }
+            Attributes main = manifest.getMainAttributes();
+            Attributes own = manifest.getAttributes(name.replace('.', '/') + "/");
+            definePackage(name,
+                    attribute(own, main, Attributes.Name.SPECIFICATION_TITLE),
+                    attribute(own, main, Attributes.Name.SPECIFICATION_VERSION),
+                    attribute(own, main, Attributes.Name.SPECIFICATION_VENDOR),
+                    attribute(own, main, Attributes.Name.IMPLEMENTATION_TITLE),
+                    attribute(own, main, Attributes.Name.IMPLEMENTATION_VERSION),
+                    attribute(own, main, Attributes.Name.IMPLEMENTATION_VENDOR),
+                    null);
+        } catch (IllegalArgumentException e) {
+            // defined by a parent, which Java 8 checks too
+        }
+    }
+
+    private static String attribute(Attributes own, Attributes main, Attributes.Name name) {
+        String value = own != null ? own.getValue(name) : null;
+        return value != null ? value : main.getValue(name);
+    }
+
+    protected URL findResource(String name) {
+        Source[] candidates = this.index.get(directory(name));
+        if (candidates != null) {
+            for (Source source : candidates) {
+                if (source.contains(name)) {
+                    return source.url(name);
+                }
+            }
+        }
+        return null;
+    }
+
+    protected Enumeration<URL> findResources(String name) {
+        Source[] candidates = this.index.get(directory(name));
+        if (candidates == null) {
+            return Collections.emptyEnumeration();
+        }
+        List<URL> urls = new ArrayList<>(candidates.length);
+        for (Source source : candidates) {
+            if (source.contains(name)) {
+                URL url = source.url(name);
+                if (url != null) {
+                    urls.add(url);
+                }
+            }
+        }
+        return Collections.enumeration(urls);
+    }
+
+    private static String directory(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash < 0 ? "" : path.substring(0, slash);
+    }
+
+    /**
+     * Time spent extracting, verifying and indexing the nested jars.
+     */
+    public long getOpenNanos() {
+        return this.openNanos;
+    }
+
+    public int getClassCount() {
+        return this.classes.get();
+    }
+
+    /**
+     * Time spent in {@link #findClass}, summed over all threads.
+     */
+    public long getClassNanos() {
+        return this.classNanos.get();
+    }
+
+    public long getClassBytes() {
+        return this.classBytes.get();
+    }
+
+    public String toString() {
+        return String.format("%d nested jars opened in %d ms; %d classes (%d KB) defined in %d ms",
+                this.sources.size(), this.openNanos / 1000000, getClassCount(), getClassBytes() / 1024,
+                getClassNanos() / 1000000);
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+        }
+    }
+
+    private static byte[] readFully(InputStream in, long size) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0 && size < Integer.MAX_VALUE ? (int) size : 8192);
+        copy(in, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * One class path element.
+     */
+    private abstract static class Source {
+        private volatile ProtectionDomain domain;
+
+        abstract Iterable<String> directories();
+
+        abstract boolean contains(String name);
+
+        /**
+         * @return the entry's bytes, or null if there is no such entry
+         */
+        abstract byte[] read(String name) throws IOException;
+
+        abstract URL url(String name);
+
+        abstract URL location();
+
+        abstract Manifest manifest();
+
+        void close() {
+        }
+
+        ProtectionDomain domain(ClassLoader loader) {
+            ProtectionDomain result = this.domain;
+            if (result == null) {
+                result = new ProtectionDomain(new CodeSource(location(), (Certificate[]) null), null, loader, null);
+                this.domain = result;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A jar extracted to the cache directory.
+     */
+    private static class FileSource extends Source {
+        private final File file;
+        private final JarFile jar;
+        private final List<String> directories = new ArrayList<>();
+        private final String base;
+
+        FileSource(File file) throws IOException {
+            this.file = file;
+            this.jar = new JarFile(file, false);
+            Set<String> seen = new HashSet<>();
+            Enumeration<JarEntry> entries = this.jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && seen.add(directory(entry.getName()))) {
+                    this.directories.add(directory(entry.getName()));
+                }
+            }
+            this.base = "jar:" + file.toURI() + "!/";
+        }
+
+        Iterable<String> directories() {
+            return this.directories;
+        }
+
+        boolean contains(String name) {
+            return this.jar.getEntry(name) != null;
+        }
+
+        byte[] read(String name) throws IOException {
+            ZipEntry entry = this.jar.getEntry(name);
+            if (entry == null) {
+                return null;
+            }
+            InputStream in = this.jar.getInputStream(entry);
+            try {
+                return readFully(in, entry.getSize());
+            } finally {
+                in.close();
+            }
+        }
+
+        URL url(String name) {
+            try {
+                return new URL(this.base + name);
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+
+        URL location() {
+            try {
+                return this.file.toURI().toURL();
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+
+        Manifest manifest() {
+            try {
+                return this.jar.getManifest();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        void close() {
+            try {
+                this.jar.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * A nested jar held inflated in memory; resource URLs still go through {@code jar:rsrc:}.
+     */
+    private static class MemorySource extends Source {
+        private final File outerJar;
+        private final String path;
+        private final Map<String, byte[]> entries = new HashMap<>();
+        private final List<String> directories = new ArrayList<>();
+        private final Manifest manifest;
+
+        MemorySource(File outerJar, String path, InputStream nested) throws IOException {
+            this.outerJar = outerJar;
+            this.path = path;
+            JarInputStream in = new JarInputStream(nested, false);
+            Set<String> seen = new HashSet<>();
+            JarEntry entry;
+            while ((entry = in.getNextJarEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    this.entries.put(entry.getName(), readFully(in, entry.getSize()));
+                    if (seen.add(directory(entry.getName()))) {
+                        this.directories.add(directory(entry.getName()));
+                    }
+                }
+            }
+            this.manifest = in.getManifest();
+        }
+
+        Iterable<String> directories() {
+            return this.directories;
+        }
+
+        boolean contains(String name) {
+            return this.entries.containsKey(name);
+        }
+
+        byte[] read(String name) {
+            return this.entries.get(name);
+        }
+
+        URL url(String name) {
+            try {
+                return new URL("jar:rsrc:" + this.path + "!/" + name);
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+
+        URL location() {
+            try {
+                return new URL("jar:" + this.outerJar.toURI() + "!/" + this.path);
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+
+        Manifest manifest() {
+            return this.manifest;
+        }
+    }
+
+    /**
+     * A directory of the runnable jar itself, {@code ./} for its root.
+     */
+    private static class DirectorySource extends FileSource {
+        private final String prefix;
+
+        DirectorySource(File outerJar, String prefix) throws IOException {
+            super(outerJar);
+            this.prefix = prefix;
+        }
+
+        Iterable<String> directories() {
+            if (this.prefix.isEmpty()) {
+                return super.directories();
+            }
+            List<String> result = new ArrayList<>();
+            for (String directory : super.directories()) {
+                if (directory.startsWith(this.prefix)) {
+                    result.add(directory.substring(this.prefix.length()));
+                } else if (directory.equals(this.prefix.substring(0, this.prefix.length() - 1))) {
+                    result.add("");
+                }
+            }
+            return result;
+        }
+
+        boolean contains(String name) {
+            return super.contains(this.prefix + name);
+        }
+
+        byte[] read(String name) throws IOException {
+            return super.read(this.prefix + name);
+        }
+
+        URL url(String name) {
+            return super.url(this.prefix + name);
+        }
+    }
+}
@@ -2,12 +2,146 @@ package org.itheima.tools.markdown;
 
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.itheima.tools.markdown.daemon.RenderDaemon;
+import org.itheima.tools.markdown.impl.SplitMarkdown;
+import org.itheima.tools.markdown.metrics.JfrRenderListener;
+import org.itheima.tools.markdown.metrics.PrometheusRenderListener;
+import org.itheima.tools.markdown.metrics.RenderMetrics;
+import org.itheima.tools.markdown.server.RenderServer;
 
 public class App
 {
+  /** What {@link #takeNumber} returns for a value that is not a number in range. */
+  private static final long INVALID = -2;
+
+  /** How often {@code -serve} rewrites the {@code -metrics} file. */
+  private static final long METRICS_PERIOD_SECONDS = 15;
+
   public static void main(String[] args) {
+    int status = execute(args);
+    if (status != 0) {
+      System.exit(status);
+    }
+  }
+
+  /**
+   * Runs the command line {@code args} as {@link #main(String[])} does, but returns its exit status.
+   */
+  public static int execute(String[] args) {
+    List<String> argList = new ArrayList<String>(Arrays.asList(args));
+    String metricsPath = takeOption(argList, "-metrics");
+    PrometheusRenderListener prometheus = null;
+    if (metricsPath != null) {
+      prometheus = new PrometheusRenderListener();
+      RenderMetrics.addListener(prometheus);
+    }
+    if (argList.remove("-jfr")) {
+      if (JfrRenderListener.isAvailable()) {
+        RenderMetrics.addListener(new JfrRenderListener());
+      } else {
+        System.err.println("JFR is not available in this JVM, -jfr ignored");
+      }
+    }
+    String engine = takeOption(argList, "-e");
+    if (engine != null) {
+      try {
+        MarkdownUtils.setEngine(Engine.forName(engine));
+      } catch (IllegalArgumentException e) {
+        System.err.println(e.getMessage());
+        return 1;
+      }
+    }
+    long timeout = takeNumber(argList, "-timeout", Long.MAX_VALUE);
+    if (timeout == INVALID) {
+      return 1;
+    } else if (timeout >= 0) {
+      MarkdownUtils.setBudget(MarkdownUtils.getBudget().withMaxMillis(timeout));
+    }
+    long maxChars = takeNumber(argList, "-maxchars", Integer.MAX_VALUE);
+    if (maxChars == INVALID) {
+      return 1;
+    } else if (maxChars >= 0) {
+      MarkdownUtils.setBudget(MarkdownUtils.getBudget().withMaxChars((int)maxChars));
+    }
+    String imageRoot = takeOption(argList, "-i");
+    if (imageRoot != null) {
+      MarkdownUtils.setImageOptions(MarkdownUtils.getImageOptions().withRoot(new File(imageRoot)));
+    }
+    long extern = takeNumber(argList, "-extern", Long.MAX_VALUE);
+    if (extern == INVALID) {
+      return 1;
+    } else if (extern >= 0) {
+      MarkdownUtils.setImageOptions(MarkdownUtils.getImageOptions().withExternalizeThreshold(extern));
+    }
+    if (argList.remove("-dedupe")) {
+      MarkdownUtils.setImageOptions(MarkdownUtils.getImageOptions().withDedupe(true));
+    }
+    if (argList.remove("-highlight")) {
+      MarkdownUtils.setHighlightCode(true);
+    }
+    if (argList.remove("-toc")) {
+      MarkdownUtils.setServerToc(true);
+    }
+    if (argList.remove("-split")) {
+      MarkdownUtils.setSplitThreshold(SplitMarkdown.DEFAULT_THRESHOLD);
+    }
+    String assets = takeOption(argList, "-assets");
+    if (assets != null) {
+      MarkdownUtils.setAssetDir(new File(assets));
+    }
+    String cacheDir = takeOption(argList, "-cache");
+    long cacheSize = takeNumber(argList, "-cachesize", Long.MAX_VALUE >> 20);
+    if (cacheSize == INVALID) {
+      return 1;
+    } else if (cacheDir != null) {
+      long maxBytes = cacheSize >= 0 ? cacheSize * 1024 * 1024 : RenderCache.DEFAULT_MAX_BYTES;
+      MarkdownUtils.setRenderCache(new RenderCache(new File(cacheDir), maxBytes));
+    }
+    boolean watch = argList.remove("-watch");
+    boolean daemon = argList.remove("-daemon");
+    String serve = takeOption(argList, "-serve");
+    boolean train = argList.remove("-train");
+    args = argList.toArray(new String[argList.size()]);
+
+    int status;
+    if (train) {
+      status = runTraining();
+    } else if (serve != null) {
+      // the server writes the metrics itself, while serving and once stopped
+      return runServer(serve, args.length >= 1 ? new File(args[0]) : new File("."), prometheus,
+          metricsPath != null ? new File(metricsPath) : null);
+    } else {
+      status = daemon ? runDaemon() : run(args, watch);
+    }
+
+    if (prometheus != null) {
+      writeMetrics(prometheus, new File(metricsPath));
+    }
+    return status;
+  }
+
+  private static void writeMetrics(PrometheusRenderListener prometheus, File file) {
+    try {
+      prometheus.writeTo(file);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private static int run(String[] args, boolean watch) {
 
 //    if (args == null || args.length <= 1) {
 //      showUsage();
@@ -28,11 +162,176 @@ public class App
         MarkdownUtils.toHtml(mdPath, htmlPath);
       } catch (IOException e) {
         e.printStackTrace();
+        return 1;
       } 
+    } else if ("-d".equalsIgnoreCase(option) || "-dir".equalsIgnoreCase(option)) {
+      File sourceDir = new File(args[1]);
+      File targetDir = args.length >= 3 ? new File(args[2]) : sourceDir;
+      String pattern = args.length >= 4 ? args[3] : BatchConverter.DEFAULT_PATTERN;
+
+      try {
+        BatchConverter converter = new BatchConverter(sourceDir, targetDir, pattern,
+            Runtime.getRuntime().availableProcessors());
+        if (watch) {
+          new DirectoryWatcher(converter).run();
+          return 0;
+        }
+        BatchConverter.Result result = converter.run();
+        for (BatchConverter.Failure failure : result.getFailures()) {
+          System.err.println(failure.getFile() + ": " + failure.getError());
+        }
+        System.out.println(result.getConverted() + "/" + result.getTotal() + " converted, "
+            + result.getFailures().size() + " failed");
+        if (!result.getFailures().isEmpty()) {
+          return 1;
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+        return 1;
+      } catch (InterruptedException e) {
+        return 1;
+      }
     } else {
       showUsage();
-      return;
     } 
+    return 0;
+  }
+
+  private static int runDaemon() {
+    try {
+      new RenderDaemon(RenderDaemon.defaultPortFile(), Runtime.getRuntime().availableProcessors()).run();
+    } catch (IOException e) {
+      e.printStackTrace();
+      return 1;
+    }
+    return 0;
+  }
+
+  /**
+   * Serves until the process is stopped. The metrics, if any, are written
+   * every {@link #METRICS_PERIOD_SECONDS} and once more after the server stopped.
+   *
+   * @param address {@code port} on the loopback interface, or {@code host:port}
+   * @param prometheus the listener to write to {@code metricsFile}, or null
+   */
+  private static int runServer(String address, File sourceDir, final PrometheusRenderListener prometheus,
+      final File metricsFile) {
+    int colon = address.lastIndexOf(':');
+    long port = parseNumber(address.substring(colon + 1), 65535);
+    if (port < 0) {
+      System.err.println("Invalid -serve address: " + address);
+      showUsage();
+      return 1;
+    }
+    InetSocketAddress socketAddress = colon < 0 ? new InetSocketAddress(InetAddress.getLoopbackAddress(), (int)port)
+        : new InetSocketAddress(address.substring(0, colon), (int)port);
+    int threads = Runtime.getRuntime().availableProcessors();
+    final RenderServer server = new RenderServer(socketAddress, sourceDir, threads, threads * 16, RenderServer.DEFAULT_CACHE_BYTES);
+    try {
+      server.start();
+    } catch (IOException e) {
+      e.printStackTrace();
+      return 1;
+    }
+    System.out.println("Serving " + sourceDir.getAbsolutePath() + " on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/");
+
+    ScheduledExecutorService dumper = null;
+    if (prometheus != null) {
+      dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "md-metrics");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      dumper.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          writeMetrics(prometheus, metricsFile);
+        }
+      }, METRICS_PERIOD_SECONDS, METRICS_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+    // the JVM halts once the hooks are done, so the last metrics are written by the hook, not by this thread
+    final CountDownLatch stopped = new CountDownLatch(1);
+    final ScheduledExecutorService periodic = dumper;
+    Thread shutdown = new Thread("md-http-shutdown") {
+      public void run() {
+        server.stop(1);
+        if (periodic != null) {
+          periodic.shutdownNow();
+          try {
+            periodic.awaitTermination(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            // write anyway
+          }
+          writeMetrics(prometheus, metricsFile);
+        }
+        stopped.countDown();
+      }
+    };
+    Runtime.getRuntime().addShutdownHook(shutdown);
+    try {
+      stopped.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return 1;
+    }
+    return 0;
+  }
+
+  private static int runTraining() {
+    try {
+      StartupTraining.run();
+    } catch (IOException e) {
+      e.printStackTrace();
+      return 1;
+    }
+    return 0;
+  }
+
+  /**
+   * Removes {@code name} and its value from {@code args}.
+   *
+   * @return the value, or null if the option is absent
+   */
+  private static String takeOption(List<String> args, String name) {
+    int i = args.indexOf(name);
+    if (i < 0 || i + 1 >= args.size()) {
+      return null;
+    }
+    args.remove(i);
+    return args.remove(i);
+  }
+  
+  /**
+   * Removes {@code name} and its value from {@code args}; prints usage if the value is not a number from 0 to
+   * {@code max}.
+   *
+   * @return the value, -1 if the option is absent, or {@link #INVALID}
+   */
+  private static long takeNumber(List<String> args, String name, long max) {
+    String value = takeOption(args, name);
+    if (value == null) {
+      return -1;
+    }
+    long number = parseNumber(value, max);
+    if (number < 0) {
+      System.err.println("Invalid " + name + ": " + value);
+      showUsage();
+      return INVALID;
+    }
+    return number;
+  }
+
+  /**
+   * @return {@code value} as a number from 0 to {@code max}, else -1
+   */
+  private static long parseNumber(String value, long max) {
+    try {
+      long number = Long.parseLong(value.trim());
+      return number <= max ? number : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
   }
   
   private static void showUsage() {
@@ -0,0 +1,224 @@
+package org.itheima.tools.markdown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts every markdown file below a source directory into the mirrored
+ * location below a target directory.
+ * <p>
+ * Files are rendered on a fixed pool sized to the available cores, largest
+ * files first so the long tail does not end up on a single worker. A failing
+ * file is recorded and the batch continues.
+ */
+public class BatchConverter {
+
+    public static final String DEFAULT_PATTERN = "**.md";
+
+    private final Path sourceDir;
+    private final Path targetDir;
+    private final PathMatcher matcher;
+    private final int threads;
+    private volatile DependencyIndex dependencies;
+
+    public BatchConverter(File sourceDir, File targetDir) {
+        this(sourceDir, targetDir, DEFAULT_PATTERN, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchConverter(File sourceDir, File targetDir, String pattern, int threads) {
+        this.sourceDir = sourceDir.toPath().toAbsolutePath().normalize();
+        this.targetDir = targetDir.toPath().toAbsolutePath().normalize();
+        this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        this.threads = Math.max(1, threads);
+    }
+
+    public Result run() throws IOException {
+        return run(collect());
+    }
+
+    /**
+     * Converts the given sources, in order.
+     */
+    Result run(List<Path> sources) {
+        final List<Failure> failures = Collections.synchronizedList(new ArrayList<Failure>());
+        final AtomicInteger converted = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(this.threads, Math.max(1, sources.size())),
+                new WorkerFactory());
+        try {
+            List<Future<?>> futures = new ArrayList<>(sources.size());
+            for (final Path source : sources) {
+                futures.add(pool.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            convert(source);
+                            converted.incrementAndGet();
+                        } catch (Throwable e) {
+                            failures.add(new Failure(source.toFile(), e));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (Exception e) {
+                    // failures are collected by the task itself
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return new Result(sources.size(), converted.get(), failures);
+    }
+
+    /**
+     * Matching sources ordered by size, largest first.
+     */
+    List<Path> collect() throws IOException {
+        final List<Path> sources = new ArrayList<>();
+        final Map<Path, Long> sizes = new HashMap<>();
+        Files.walkFileTree(this.sourceDir, new SimpleFileVisitor<Path>() {
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.equals(BatchConverter.this.targetDir) && !dir.equals(BatchConverter.this.sourceDir)
+                        ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && matches(file)) {
+                    sources.add(file);
+                    sizes.put(file, attrs.size());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        Collections.sort(sources, new Comparator<Path>() {
+            public int compare(Path a, Path b) {
+                return Long.compare(sizes.get(b), sizes.get(a));
+            }
+        });
+        return sources;
+    }
+
+    private void convert(Path source) throws IOException {
+        Path target = targetFor(source);
+        Files.createDirectories(target.getParent());
+        DependencyIndex index = this.dependencies;
+        if (index == null) {
+            MarkdownUtils.toHtml(source.toFile(), target.toFile());
+            return;
+        }
+        List<File> images = new ArrayList<>();
+        MarkdownUtils.toHtml(source.toFile(), target.toFile(), images);
+        index.update(source, images);
+    }
+
+    /**
+     * Whether {@code file}, an absolute normalized path, is a source of this batch.
+     */
+    boolean matches(Path file) {
+        if (!file.startsWith(this.sourceDir) || file.equals(this.sourceDir)) {
+            return false;
+        }
+        if (!this.targetDir.equals(this.sourceDir) && file.startsWith(this.targetDir)) {
+            return false;
+        }
+        return this.matcher.matches(this.sourceDir.relativize(file));
+    }
+
+    /**
+     * Records the images of every document converted from now on.
+     */
+    void setDependencyIndex(DependencyIndex index) {
+        this.dependencies = index;
+    }
+
+    Path getSourceDir() {
+        return this.sourceDir;
+    }
+
+    Path getTargetDir() {
+        return this.targetDir;
+    }
+
+    Path targetFor(Path source) {
+        String relative = this.sourceDir.relativize(source).toString();
+        int dot = relative.lastIndexOf('.');
+        int sep = relative.lastIndexOf(File.separatorChar);
+        if (dot > sep) {
+            relative = relative.substring(0, dot);
+        }
+        return this.targetDir.resolve(relative + ".html");
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "md-batch-" + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    public static class Failure {
+        private final File file;
+        private final Throwable error;
+
+        Failure(File file, Throwable error) {
+            this.file = file;
+            this.error = error;
+        }
+
+        public File getFile() {
+            return this.file;
+        }
+
+        public Throwable getError() {
+            return this.error;
+        }
+    }
+
+    public static class Result {
+        private final int total;
+        private final int converted;
+        private final List<Failure> failures;
+
+        Result(int total, int converted, List<Failure> failures) {
+            this.total = total;
+            this.converted = converted;
+            this.failures = Collections.unmodifiableList(new ArrayList<>(failures));
+        }
+
+        public int getTotal() {
+            return this.total;
+        }
+
+        public int getConverted() {
+            return this.converted;
+        }
+
+        public List<Failure> getFailures() {
+            return this.failures;
+        }
+    }
+}
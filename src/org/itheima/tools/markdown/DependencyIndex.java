@@ -0,0 +1,77 @@
+package org.itheima.tools.markdown;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Which documents embed which images, filled in as documents are rendered, so
+ * a changed image leads back to the pages that show it. Paths are absolute
+ * and normalized; images that did not exist when a document was rendered are
+ * kept too, so adding one re-renders the documents waiting for it.
+ */
+class DependencyIndex {
+
+    private final Map<Path, Set<Path>> imagesByDocument = new HashMap<>();
+    private final Map<Path, Set<Path>> documentsByImage = new HashMap<>();
+
+    /**
+     * Replaces the images recorded for {@code document}.
+     */
+    synchronized void update(Path document, Collection<File> images) {
+        remove(document);
+        Set<Path> paths = new LinkedHashSet<>();
+        for (File image : images) {
+            Path path = image.toPath().toAbsolutePath().normalize();
+            paths.add(path);
+            Set<Path> documents = this.documentsByImage.get(path);
+            if (documents == null) {
+                documents = new LinkedHashSet<>();
+                this.documentsByImage.put(path, documents);
+            }
+            documents.add(document);
+        }
+        if (!paths.isEmpty()) {
+            this.imagesByDocument.put(document, paths);
+        }
+    }
+
+    synchronized void remove(Path document) {
+        Set<Path> images = this.imagesByDocument.remove(document);
+        if (images == null) {
+            return;
+        }
+        for (Path image : images) {
+            Set<Path> documents = this.documentsByImage.get(image);
+            if (documents != null && documents.remove(document) && documents.isEmpty()) {
+                this.documentsByImage.remove(image);
+            }
+        }
+    }
+
+    /**
+     * @return the documents embedding {@code image}, possibly none
+     */
+    synchronized Set<Path> documents(Path image) {
+        Set<Path> documents = this.documentsByImage.get(image);
+        return documents == null ? Collections.<Path>emptySet() : new LinkedHashSet<>(documents);
+    }
+
+    /**
+     * @return the directories holding the images of all documents
+     */
+    synchronized Set<Path> directories() {
+        Set<Path> dirs = new LinkedHashSet<>();
+        for (Path image : this.documentsByImage.keySet()) {
+            if (image.getParent() != null) {
+                dirs.add(image.getParent());
+            }
+        }
+        return dirs;
+    }
+}
@@ -0,0 +1,186 @@
+package org.itheima.tools.markdown;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts a directory like {@link BatchConverter}, then keeps converting it
+ * as files change, in the same warm JVM: engines, page shells and the image
+ * cache are loaded once.
+ * <p>
+ * Events are gathered until none has arrived for the debounce interval, so
+ * an editor's save or a copied folder re-renders each document once. A
+ * changed markdown file is re-rendered itself; a changed image re-renders the
+ * documents that embed it, found through a {@link DependencyIndex} filled in
+ * while rendering. Image directories outside the source tree are watched as
+ * soon as a document refers to them.
+ */
+public class DirectoryWatcher {
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 200;
+
+    private final BatchConverter converter;
+    private final long debounceMillis;
+    private final DependencyIndex index = new DependencyIndex();
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    /** Directories watched on their own, outside the source tree. */
+    private final Set<Path> imageDirs = new LinkedHashSet<>();
+
+    public DirectoryWatcher(BatchConverter converter) {
+        this(converter, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    public DirectoryWatcher(BatchConverter converter, long debounceMillis) {
+        this.converter = converter;
+        this.debounceMillis = debounceMillis;
+        converter.setDependencyIndex(this.index);
+    }
+
+    /**
+     * Converts everything, then re-renders on change until the thread is interrupted.
+     */
+    public void run() throws IOException, InterruptedException {
+        WatchService watcher = FileSystems.getDefault().newWatchService();
+        try {
+            registerTree(watcher, this.converter.getSourceDir());
+            report(this.converter.run());
+            registerImageDirs(watcher);
+            System.out.println("Watching " + this.converter.getSourceDir() + " for changes...");
+
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changed = new LinkedHashSet<>();
+                boolean overflow = poll(watcher, watcher.take(), changed);
+                WatchKey key;
+                while ((key = watcher.poll(this.debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= poll(watcher, key, changed);
+                }
+                List<Path> documents = overflow ? this.converter.collect() : affected(changed);
+                if (!documents.isEmpty()) {
+                    report(this.converter.run(documents));
+                    registerImageDirs(watcher);
+                }
+            }
+        } finally {
+            watcher.close();
+        }
+    }
+
+    /**
+     * Adds the paths of {@code key}'s events to {@code changed}, starting to
+     * watch new directories.
+     *
+     * @return whether events were lost
+     */
+    private boolean poll(WatchService watcher, WatchKey key, Set<Path> changed) throws IOException {
+        Path dir = this.keys.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context()).toAbsolutePath().normalize();
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path) && path.startsWith(this.converter.getSourceDir())
+                    && !path.equals(this.converter.getTargetDir())) {
+                // files may have landed in it before the watch was in place
+                changed.addAll(registerTree(watcher, path));
+            }
+            changed.add(path);
+        }
+        if (!key.reset()) {
+            this.keys.remove(key);
+        }
+        return overflow;
+    }
+
+    /**
+     * The documents to render again for the changed paths.
+     */
+    private List<Path> affected(Set<Path> changed) {
+        Set<Path> documents = new LinkedHashSet<>();
+        for (Path path : changed) {
+            if (this.converter.matches(path)) {
+                if (Files.isRegularFile(path)) {
+                    documents.add(path);
+                } else {
+                    this.index.remove(path);
+                }
+            }
+            for (Path document : this.index.documents(path)) {
+                if (Files.isRegularFile(document)) {
+                    documents.add(document);
+                }
+            }
+        }
+        return new ArrayList<>(documents);
+    }
+
+    /**
+     * Watches {@code root} and the directories below it, except the target.
+     *
+     * @return the files found below {@code root}
+     */
+    private List<Path> registerTree(final WatchService watcher, Path root) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        final Path targetDir = this.converter.getTargetDir();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.equals(targetDir) && !dir.equals(DirectoryWatcher.this.converter.getSourceDir())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                register(watcher, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private void registerImageDirs(WatchService watcher) throws IOException {
+        Path sourceDir = this.converter.getSourceDir();
+        for (Path dir : this.index.directories()) {
+            if (!dir.startsWith(sourceDir) && Files.isDirectory(dir) && this.imageDirs.add(dir)) {
+                register(watcher, dir);
+            }
+        }
+    }
+
+    private void register(WatchService watcher, Path dir) throws IOException {
+        this.keys.put(dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+    }
+
+    private static void report(BatchConverter.Result result) {
+        for (BatchConverter.Failure failure : result.getFailures()) {
+            System.err.println(failure.getFile() + ": " + failure.getError());
+        }
+        System.out.println(result.getConverted() + "/" + result.getTotal() + " converted, "
+                + result.getFailures().size() + " failed");
+    }
+}
@@ -0,0 +1,77 @@
+package org.itheima.tools.markdown;
+
+import org.itheima.tools.markdown.impl.AdaptiveMarkdown;
+import org.itheima.tools.markdown.impl.CommonmarkImpl;
+import org.itheima.tools.markdown.impl.FlexmarkImpl;
+import org.itheima.tools.markdown.impl.PegdownImpl;
+import org.itheima.tools.markdown.impl.SplitMarkdown;
+import org.itheima.tools.markdown.impl.TxtmarkImpl;
+
+/**
+ * The bundled {@link Markdown} implementations, selectable by name.
+ */
+public enum Engine {
+    PEGDOWN,
+    FLEXMARK,
+    COMMONMARK,
+    TXTMARK,
+    /**
+     * Scans each document and hands it to the fastest engine that supports
+     * the markdown features it uses; see {@link AdaptiveMarkdown}.
+     */
+    AUTO;
+
+    public String getName() {
+        return name().toLowerCase();
+    }
+
+    public Markdown create() {
+        switch (this) {
+            case PEGDOWN:
+                return new PegdownImpl();
+            case FLEXMARK:
+                return new FlexmarkImpl();
+            case COMMONMARK:
+                return new CommonmarkImpl();
+            case TXTMARK:
+                return new TxtmarkImpl();
+            default:
+                return new AdaptiveMarkdown();
+        }
+    }
+
+    /**
+     * @return the engine name of a bundled implementation, or of the one a {@link SplitMarkdown} renders with,
+     * else its simple class name
+     */
+    public static String nameOf(Markdown markdown) {
+        if (markdown instanceof SplitMarkdown) {
+            return nameOf(((SplitMarkdown) markdown).getDelegate());
+        }
+        if (markdown instanceof PegdownImpl) {
+            return PEGDOWN.getName();
+        } else if (markdown instanceof FlexmarkImpl) {
+            return FLEXMARK.getName();
+        } else if (markdown instanceof CommonmarkImpl) {
+            return COMMONMARK.getName();
+        } else if (markdown instanceof TxtmarkImpl) {
+            return TXTMARK.getName();
+        } else if (markdown instanceof AdaptiveMarkdown) {
+            return AUTO.getName();
+        }
+        return markdown.getClass().getSimpleName();
+    }
+
+    public static Engine forName(String name) {
+        for (Engine engine : values()) {
+            if (engine.getName().equalsIgnoreCase(name)) {
+                return engine;
+            }
+        }
+        StringBuilder names = new StringBuilder();
+        for (Engine engine : values()) {
+            names.append(names.length() == 0 ? "" : ", ").append(engine.getName());
+        }
+        throw new IllegalArgumentException("Unknown engine '" + name + "', expected one of " + names);
+    }
+}
@@ -0,0 +1,480 @@
+package org.itheima.tools.markdown;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
+/**
+ * Resolves the local images of one page, relative sources against a base
+ * directory. Remote, protocol-relative and data sources are left as written,
+ * and so is any image that cannot be read.
+ * <p>
+ * Images to be externalized are copied beside the page while rendering. Every
+ * other image becomes a placeholder and is written by {@link #wrap(Writer)}
+ * once the whole page is known: inlined from the shared cache, streamed from
+ * the file when large, or, with deduplication, written once into the
+ * {@link #footer()} script and referenced from each use. Placeholder
+ * characters in the markdown itself are {@link #escape(String) escaped} into
+ * placeholders of their own, so they neither pass for nor break an image.
+ */
+public class FileImageResolver implements ImageResolver {
+
+    static final char PLACEHOLDER_START = '\uE000';
+    static final char PLACEHOLDER_END = '\uE001';
+
+    /** Placeholder of the script carrying deduplicated images. */
+    private static final String SCRIPT = "s";
+
+    /** Placeholders of a placeholder character written in the markdown. */
+    private static final String START_ID = "o";
+    private static final String END_ID = "c";
+    private static final String ESCAPED_START = placeholder(START_ID);
+    private static final String ESCAPED_END = placeholder(END_ID);
+
+    /** Transparent gif shown until the footer script swaps in the image. */
+    private static final String BLANK = "data:image/gif;base64,R0lGODlhAQABAIAAAAAAAP///yH5BAEAAAAALAAAAAABAAEAAAIBRAA7";
+
+    private static final String FRAGMENT = "#md-img-";
+
+    private final File baseDir;
+    private final File pageDir;
+    private final ImageOptions options;
+    private final ImageCache cache;
+    private final List<Image> images = new ArrayList<>();
+    private final Map<String, Image> byPath = new HashMap<>();
+    /** Local sources in the order resolved, and the files they named, for {@link RenderCache}. */
+    private final List<String> sources = new ArrayList<>();
+    private final Set<File> files = new LinkedHashSet<>();
+
+    public FileImageResolver(File baseDir) {
+        this(baseDir, null, ImageOptions.DEFAULT, ImageCache.shared());
+    }
+
+    /**
+     * @param baseDir directory for relative sources, or null for the working directory
+     * @param pageDir directory the page is written to, or null to never externalize
+     */
+    public FileImageResolver(File baseDir, File pageDir, ImageOptions options, ImageCache cache) {
+        this.baseDir = baseDir;
+        this.pageDir = pageDir;
+        this.options = options;
+        this.cache = cache;
+    }
+
+    public String resolve(String src) {
+        String path = unescape(src);
+        File file = toFile(path);
+        if (file == null || !isAllowed(file)) {
+            return src;
+        }
+        synchronized (this.sources) {
+            this.sources.add(path);
+            this.files.add(file);
+        }
+        if (!file.isFile()) {
+            System.err.println("Image not found: " + file);
+            return src;
+        }
+        long size = file.length();
+        if (this.pageDir != null && size > this.options.getExternalizeThreshold()) {
+            String dir = this.options.getExternalDir();
+            try {
+                return dir + "/" + this.cache.externalize(file, new File(this.pageDir, dir));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return src;
+            }
+        }
+        String key = file.getAbsoluteFile().toPath().normalize().toString();
+        synchronized (this.images) {
+            Image image = this.byPath.get(key);
+            if (image == null) {
+                image = new Image(this.images.size(), file, size, path);
+                this.images.add(image);
+                this.byPath.put(key, image);
+            }
+            image.uses++;
+            return placeholder(Integer.toString(image.index));
+        }
+    }
+
+    /**
+     * Markup to append to the page body: the script that fills in deduplicated
+     * images, or an empty string when there are none.
+     */
+    public String footer() {
+        if (this.options.isDedupe()) {
+            synchronized (this.images) {
+                for (Image image : this.images) {
+                    if (image.uses > 1) {
+                        return placeholder(SCRIPT);
+                    }
+                }
+            }
+        }
+        return "";
+    }
+
+    /**
+     * The local image sources resolved so far, in order; resolving them again
+     * on a fresh resolver reproduces this one's placeholders.
+     */
+    public List<String> getSources() {
+        synchronized (this.sources) {
+            return new ArrayList<>(this.sources);
+        }
+    }
+
+    /**
+     * The files the local sources named, whether or not they exist.
+     */
+    public List<File> getFiles() {
+        synchronized (this.sources) {
+            return new ArrayList<>(this.files);
+        }
+    }
+
+    /**
+     * Whether any image of this page is written by {@link #wrap(Writer)}.
+     */
+    public boolean hasPlaceholders() {
+        synchronized (this.images) {
+            return !this.images.isEmpty();
+        }
+    }
+
+    /**
+     * The point {@link #rollback(Mark)} returns to: what has been resolved so far.
+     */
+    Mark mark() {
+        synchronized (this.images) {
+            int[] uses = new int[this.images.size()];
+            for (int i = 0; i < uses.length; i++) {
+                uses[i] = this.images.get(i).uses;
+            }
+            synchronized (this.sources) {
+                return new Mark(uses, this.sources.size());
+            }
+        }
+    }
+
+    /**
+     * Forgets every resolve since {@code mark}, e.g. those of an abandoned
+     * render. Externalized copies stay, a later resolve reuses them.
+     */
+    void rollback(Mark mark) {
+        synchronized (this.images) {
+            while (this.images.size() > mark.uses.length) {
+                Image image = this.images.remove(this.images.size() - 1);
+                this.byPath.values().remove(image);
+            }
+            for (int i = 0; i < mark.uses.length; i++) {
+                this.images.get(i).uses = mark.uses[i];
+            }
+        }
+        synchronized (this.sources) {
+            this.sources.subList(mark.sources, this.sources.size()).clear();
+            this.files.clear();
+            for (String source : this.sources) {
+                this.files.add(toFile(source));
+            }
+        }
+    }
+
+    /**
+     * The writer for a body rendered with this resolver: replaces placeholders
+     * with the images and escaped characters, see {@link #needsWrap(CharSequence)}.
+     */
+    public Writer wrap(Writer out) {
+        return new PlaceholderWriter(out);
+    }
+
+    /**
+     * Whether {@code body} must be written through {@link #wrap(Writer)}:
+     * there are images, or the markdown had placeholder characters.
+     */
+    public boolean needsWrap(CharSequence body) {
+        if (hasPlaceholders()) {
+            return true;
+        }
+        for (int i = 0; i < body.length(); i++) {
+            if (body.charAt(i) == PLACEHOLDER_START) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@code markdown} with each placeholder character turned into a
+     * placeholder that {@link #wrap(Writer)} writes back as the character;
+     * apply before rendering with a resolver.
+     */
+    public static String escape(String markdown) {
+        if (indexOfAny(markdown, PLACEHOLDER_START, PLACEHOLDER_END) < 0) {
+            return markdown;
+        }
+        StringBuilder escaped = new StringBuilder(markdown.length() + 16);
+        for (int i = 0; i < markdown.length(); i++) {
+            char c = markdown.charAt(i);
+            if (c == PLACEHOLDER_START) {
+                escaped.append(ESCAPED_START);
+            } else if (c == PLACEHOLDER_END) {
+                escaped.append(ESCAPED_END);
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * {@code text} with the characters {@link #escape(String)} replaced put
+     * back, for text taken out of a body rather than written through
+     * {@link #wrap(Writer)}.
+     */
+    public static String unescape(String text) {
+        if (text.indexOf(PLACEHOLDER_START) < 0) {
+            return text;
+        }
+        return text.replace(ESCAPED_START, String.valueOf(PLACEHOLDER_START))
+                .replace(ESCAPED_END, String.valueOf(PLACEHOLDER_END));
+    }
+
+    private static String placeholder(String id) {
+        return PLACEHOLDER_START + id + PLACEHOLDER_END;
+    }
+
+    private boolean shared(Image image) {
+        return this.options.isDedupe() && image.uses > 1;
+    }
+
+    private void writeImage(Image image, Writer out) throws IOException {
+        try {
+            if (image.size > this.options.getStreamThreshold()) {
+                ImageCache.writeDataUri(image.file, out);
+            } else {
+                out.write(this.cache.dataUri(image.file));
+            }
+        } catch (FileNotFoundException e) {
+            System.err.println(e.getMessage());
+            out.write(StringEscapeUtils.escapeHtml(image.src));
+        }
+    }
+
+    private void writeScript(Writer out) throws IOException {
+        out.write("<script>(function(){var d={");
+        boolean first = true;
+        for (Image image : this.images) {
+            if (shared(image)) {
+                out.write(first ? "\"" : ",\"");
+                out.write(Integer.toString(image.index));
+                out.write("\":\"");
+                writeImage(image, out);
+                out.write('"');
+                first = false;
+            }
+        }
+        out.write("};var m=document.getElementsByTagName(\"img\");for(var i=0;i<m.length;i++){"
+                + "var s=m[i].getAttribute(\"src\")||\"\",k=s.indexOf(\"" + FRAGMENT + "\");"
+                + "if(k>0&&d[s.substring(k+" + FRAGMENT.length() + ")])m[i].src=d[s.substring(k+" + FRAGMENT.length() + ")];}"
+                + "})();</script>");
+    }
+
+    private File toFile(String src) {
+        if (src.isEmpty() || src.startsWith("//") || src.startsWith("#")) {
+            return null;
+        }
+        if (src.startsWith("file:")) {
+            try {
+                return new File(URI.create(src));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        int colon = src.indexOf(':');
+        // a scheme needs more than one letter, so "C:\..." is still a path
+        if (colon > 1 && src.lastIndexOf('/', colon) < 0) {
+            return null;
+        }
+
+        String path = src;
+        int query = indexOfAny(path, '?', '#');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        File file = inBaseDir(path);
+        if (!file.exists() && path.indexOf('%') >= 0) {
+            try {
+                file = inBaseDir(URLDecoder.decode(path.replace("+", "%2B"), "UTF-8"));
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                // keep the undecoded path
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Whether {@code file} may be read: always, unless the options confine
+     * images to a directory and the file, links followed, lies outside it.
+     */
+    private boolean isAllowed(File file) {
+        File confinedTo = this.options.getConfinedTo();
+        if (confinedTo == null) {
+            return true;
+        }
+        try {
+            Path base = confinedTo.toPath().toAbsolutePath().normalize();
+            Path path = file.toPath().toAbsolutePath().normalize();
+            if (file.exists()) {
+                base = base.toRealPath();
+                path = path.toRealPath();
+            }
+            return path.startsWith(base) && !path.equals(base);
+        } catch (IOException | InvalidPathException e) {
+            return false;
+        }
+    }
+
+    private File inBaseDir(String path) {
+        File file = new File(path);
+        return file.isAbsolute() || this.baseDir == null ? file : new File(this.baseDir, path);
+    }
+
+    private static int indexOfAny(String s, char a, char b) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == a || c == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static class Mark {
+        private final int[] uses;
+        private final int sources;
+
+        Mark(int[] uses, int sources) {
+            this.uses = uses;
+            this.sources = sources;
+        }
+    }
+
+    private static class Image {
+        private final int index;
+        private final File file;
+        private final long size;
+        private final String src;
+        private int uses;
+
+        Image(int index, File file, long size, String src) {
+            this.index = index;
+            this.file = file;
+            this.size = size;
+            this.src = src;
+        }
+    }
+
+    private class PlaceholderWriter extends FilterWriter {
+        private final StringBuilder id = new StringBuilder(8);
+        private boolean inPlaceholder;
+
+        PlaceholderWriter(Writer out) {
+            super(out);
+        }
+
+        public void write(int c) throws IOException {
+            if (this.inPlaceholder) {
+                if (c == PLACEHOLDER_END) {
+                    this.inPlaceholder = false;
+                    replace(this.id.toString());
+                } else {
+                    this.id.append((char) c);
+                }
+            } else if (c == PLACEHOLDER_START) {
+                this.inPlaceholder = true;
+                this.id.setLength(0);
+            } else {
+                this.out.write(c);
+            }
+        }
+
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            int end = off + len;
+            int run = off;
+            for (int i = off; i < end; i++) {
+                char c = cbuf[i];
+                if (this.inPlaceholder || c == PLACEHOLDER_START) {
+                    if (run < i) {
+                        this.out.write(cbuf, run, i - run);
+                    }
+                    write(c);
+                    run = i + 1;
+                }
+            }
+            if (run < end) {
+                this.out.write(cbuf, run, end - run);
+            }
+        }
+
+        public void write(String str, int off, int len) throws IOException {
+            int end = off + len;
+            int run = off;
+            for (int i = off; i < end; i++) {
+                char c = str.charAt(i);
+                if (this.inPlaceholder || c == PLACEHOLDER_START) {
+                    if (run < i) {
+                        this.out.write(str, run, i - run);
+                    }
+                    write(c);
+                    run = i + 1;
+                }
+            }
+            if (run < end) {
+                this.out.write(str, run, end - run);
+            }
+        }
+
+        private void replace(String id) throws IOException {
+            if (SCRIPT.equals(id)) {
+                writeScript(this.out);
+                return;
+            } else if (START_ID.equals(id)) {
+                this.out.write(PLACEHOLDER_START);
+                return;
+            } else if (END_ID.equals(id)) {
+                this.out.write(PLACEHOLDER_END);
+                return;
+            }
+            Image image;
+            try {
+                image = FileImageResolver.this.images.get(Integer.parseInt(id));
+            } catch (RuntimeException e) {
+                // not one of ours; pass the text through
+                this.out.write(placeholder(id));
+                return;
+            }
+            if (shared(image)) {
+                this.out.write(BLANK + FRAGMENT + image.index);
+            } else {
+                writeImage(image, this.out);
+            }
+        }
+    }
+}
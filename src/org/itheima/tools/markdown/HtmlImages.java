@@ -0,0 +1,126 @@
+package org.itheima.tools.markdown;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
+/**
+ * Rewrites the {@code src} of {@code <img>} tags in an HTML fragment with a
+ * single forward scan, without building a DOM. Used for raw HTML inside the
+ * markdown and for engines that offer no image hook while rendering.
+ */
+public final class HtmlImages {
+
+    private HtmlImages() {
+    }
+
+    public static String rewrite(String html, ImageResolver images) {
+        if (images == ImageResolver.NONE) {
+            return html;
+        }
+        int tag = indexOfImg(html, 0);
+        if (tag < 0) {
+            return html;
+        }
+
+        StringBuilder out = new StringBuilder(html.length() + 256);
+        int copied = 0;
+        int length = html.length();
+        while (tag >= 0) {
+            int i = tag + 4;
+            int end = -1;
+            while (i < length) {
+                char c = html.charAt(i);
+                if (c == '>') {
+                    end = i;
+                    break;
+                }
+                if (Character.isWhitespace(c) || c == '/') {
+                    i++;
+                    continue;
+                }
+                int nameStart = i;
+                while (i < length && !Character.isWhitespace(html.charAt(i)) && "=>/".indexOf(html.charAt(i)) < 0) {
+                    i++;
+                }
+                String name = html.substring(nameStart, i);
+                while (i < length && Character.isWhitespace(html.charAt(i))) {
+                    i++;
+                }
+                if (i >= length || html.charAt(i) != '=') {
+                    continue;
+                }
+                i++;
+                while (i < length && Character.isWhitespace(html.charAt(i))) {
+                    i++;
+                }
+                int valueStart;
+                int valueEnd;
+                char quote = i < length ? html.charAt(i) : 0;
+                if (quote == '"' || quote == '\'') {
+                    valueStart = i + 1;
+                    valueEnd = html.indexOf(quote, valueStart);
+                    if (valueEnd < 0) {
+                        valueEnd = length;
+                    }
+                    i = Math.min(valueEnd + 1, length);
+                } else {
+                    valueStart = i;
+                    while (i < length && !Character.isWhitespace(html.charAt(i)) && html.charAt(i) != '>') {
+                        i++;
+                    }
+                    valueEnd = i;
+                }
+                if ("src".equalsIgnoreCase(name)) {
+                    String src = StringEscapeUtils.unescapeHtml(html.substring(valueStart, valueEnd));
+                    out.append(html, copied, valueStart);
+                    appendAttributeValue(out, images.resolve(src));
+                    copied = valueEnd;
+                }
+            }
+            tag = end < 0 ? -1 : indexOfImg(html, end);
+        }
+        out.append(html, copied, length);
+        return out.toString();
+    }
+
+    /**
+     * Escapes the characters that could end or break a quoted attribute value;
+     * everything else, including non-ASCII, is kept as is.
+     */
+    public static void appendAttributeValue(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                case '\'':
+                    out.append("&#39;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    private static int indexOfImg(String html, int from) {
+        int length = html.length();
+        for (int i = html.indexOf('<', from); i >= 0 && i + 4 < length; i = html.indexOf('<', i + 1)) {
+            if ((html.charAt(i + 1) | 0x20) == 'i' && (html.charAt(i + 2) | 0x20) == 'm' && (html.charAt(i + 3) | 0x20) == 'g') {
+                char after = html.charAt(i + 4);
+                if (Character.isWhitespace(after) || after == '/' || after == '>') {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+}
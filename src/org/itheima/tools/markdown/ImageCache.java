@@ -0,0 +1,303 @@
+package org.itheima.tools.markdown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Base64 data URIs of image files, shared by all documents of a run.
+ * <p>
+ * Entries are keyed by canonical path, modification time and size, so an
+ * edited image is re-encoded while an unchanged one is read once no matter
+ * how many pages embed it. The cache is an LRU bounded by the total length of
+ * the cached URIs; an image larger than a quarter of the bound is encoded
+ * but not kept. The same keys remember the content hash of images copied
+ * out by {@link #externalize(File, File)}.
+ */
+public class ImageCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** Bytes read per step by {@link #writeDataUri(File, Writer)}; a multiple of 3. */
+    private static final int STREAM_CHUNK = 48 * 1024;
+
+    private static final int MAX_NAMES = 4096;
+
+    private static final ImageCache SHARED = new ImageCache(DEFAULT_MAX_BYTES);
+
+    private static final Map<String, String> EXTENSIONS = new HashMap<>();
+
+    static {
+        EXTENSIONS.put("png", "image/png");
+        EXTENSIONS.put("jpg", "image/jpeg");
+        EXTENSIONS.put("jpeg", "image/jpeg");
+        EXTENSIONS.put("gif", "image/gif");
+        EXTENSIONS.put("bmp", "image/bmp");
+        EXTENSIONS.put("webp", "image/webp");
+        EXTENSIONS.put("svg", "image/svg+xml");
+        EXTENSIONS.put("ico", "image/x-icon");
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, String> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    /** Content-derived names of externalized files. */
+    private final Map<Key, String> names = new LinkedHashMap<Key, String>(64, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+            return size() > MAX_NAMES;
+        }
+    };
+
+    public ImageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static ImageCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return the {@code data:} URI of {@code file}
+     * @throws IOException if the file is missing or unreadable
+     */
+    public String dataUri(File file) throws IOException {
+        File canonical = file.getCanonicalFile();
+        if (!canonical.isFile()) {
+            throw new FileNotFoundException("Image not found: " + file);
+        }
+        Key key = new Key(canonical.getPath(), canonical.lastModified(), canonical.length());
+        synchronized (this) {
+            String uri = this.entries.get(key);
+            if (uri != null) {
+                return uri;
+            }
+        }
+
+        // encoded outside the lock; two threads racing on one image both encode it once
+        byte[] data = Files.readAllBytes(canonical.toPath());
+        String uri = "data:" + mimeType(data, canonical.getName()) + ";base64,"
+                + new String(Base64.encodeBase64(data), StandardCharsets.US_ASCII);
+        put(key, uri);
+        return uri;
+    }
+
+    /**
+     * Copies {@code file} into {@code dir} under a name derived from its
+     * content, unless it is already there.
+     *
+     * @return the file name inside {@code dir}
+     */
+    public String externalize(File file, File dir) throws IOException {
+        File canonical = file.getCanonicalFile();
+        Key key = new Key(canonical.getPath(), canonical.lastModified(), canonical.length());
+        String name;
+        synchronized (this) {
+            name = this.names.get(key);
+        }
+        if (name == null) {
+            name = contentName(canonical);
+            synchronized (this) {
+                this.names.put(key, name);
+            }
+        }
+
+        File target = new File(dir, name);
+        if (!target.isFile() || target.length() != canonical.length()) {
+            Files.createDirectories(dir.toPath());
+            Path temp = Files.createTempFile(dir.toPath(), name, ".tmp");
+            try {
+                Files.copy(canonical.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+                try {
+                    Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * The first 16 hex digits of the SHA-256 of the content, with the file's
+     * image extension or one matching its signature.
+     */
+    private static String contentName(File file) throws IOException {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        byte[] head = null;
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] chunk = new byte[STREAM_CHUNK];
+            int len;
+            while ((len = fill(in, chunk)) > 0) {
+                if (head == null) {
+                    head = Arrays.copyOf(chunk, Math.min(len, 16));
+                }
+                digest.update(chunk, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String extension = dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        if (!EXTENSIONS.containsKey(extension)) {
+            String type = mimeType(head != null ? head : new byte[0], name);
+            extension = "bin";
+            for (Map.Entry<String, String> entry : EXTENSIONS.entrySet()) {
+                if (entry.getValue().equals(type) && !"jpeg".equals(entry.getKey())) {
+                    extension = entry.getKey();
+                }
+            }
+        }
+        return Hex.encodeHexString(digest.digest()).substring(0, 16) + "." + extension;
+    }
+
+    /**
+     * Writes the {@code data:} URI of {@code file} to {@code out} a chunk at a
+     * time, without holding the file or its encoding in memory.
+     */
+    public static void writeDataUri(File file, Writer out) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] chunk = new byte[STREAM_CHUNK];
+            char[] encoded = new char[STREAM_CHUNK / 3 * 4];
+            int len = fill(in, chunk);
+            out.write("data:");
+            out.write(mimeType(len == chunk.length ? chunk : Arrays.copyOf(chunk, len), file.getName()));
+            out.write(";base64,");
+            while (len > 0) {
+                // whole 3-byte groups until the last chunk, so only the end is padded
+                byte[] base64 = Base64.encodeBase64(len == chunk.length ? chunk : Arrays.copyOf(chunk, len));
+                for (int i = 0; i < base64.length; i++) {
+                    encoded[i] = (char) base64[i];
+                }
+                out.write(encoded, 0, base64.length);
+                len = len == chunk.length ? fill(in, chunk) : 0;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int fill(InputStream in, byte[] buffer) throws IOException {
+        int len = 0;
+        int n;
+        while (len < buffer.length && (n = in.read(buffer, len, buffer.length - len)) != -1) {
+            len += n;
+        }
+        return len;
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+        this.names.clear();
+        this.bytes = 0;
+    }
+
+    private synchronized void put(Key key, String uri) {
+        long size = sizeOf(uri);
+        if (size > this.maxBytes / 4) {
+            return;
+        }
+        String previous = this.entries.put(key, uri);
+        if (previous != null) {
+            this.bytes -= sizeOf(previous);
+        }
+        this.bytes += size;
+        Iterator<String> eldest = this.entries.values().iterator();
+        while (this.bytes > this.maxBytes && eldest.hasNext()) {
+            this.bytes -= sizeOf(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long sizeOf(String uri) {
+        return 2L * uri.length();
+    }
+
+    /**
+     * Sniffs the common image signatures and falls back to the file extension.
+     */
+    static String mimeType(byte[] data, String name) {
+        if (startsWith(data, 0, 0x89, 'P', 'N', 'G')) {
+            return "image/png";
+        }
+        if (startsWith(data, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(data, 0, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (startsWith(data, 0, 'R', 'I', 'F', 'F') && startsWith(data, 8, 'W', 'E', 'B', 'P')) {
+            return "image/webp";
+        }
+        if (startsWith(data, 0, 'B', 'M')) {
+            return "image/bmp";
+        }
+        if (startsWith(data, 0, 0, 0, 1, 0)) {
+            return "image/x-icon";
+        }
+        int dot = name.lastIndexOf('.');
+        String type = dot < 0 ? null : EXTENSIONS.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type != null ? type : "application/octet-stream";
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int... signature) {
+        if (data.length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((data[offset + i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Key {
+        private final String path;
+        private final long modified;
+        private final long size;
+
+        Key(String path, long modified, long size) {
+            this.path = path;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return this.modified == other.modified && this.size == other.size && this.path.equals(other.path);
+        }
+
+        public int hashCode() {
+            return 31 * this.path.hashCode() + (int) (this.modified ^ this.size);
+        }
+    }
+}
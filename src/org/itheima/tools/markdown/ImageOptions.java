@@ -0,0 +1,110 @@
+package org.itheima.tools.markdown;
+
+import java.io.File;
+
+/**
+ * How local images end up in a page.
+ * <p>
+ * By default every image is inlined as a data URI: from the shared
+ * {@link ImageCache} up to {@code streamThreshold}, streamed into the page
+ * beyond it. Images larger than {@code externalizeThreshold} can instead be
+ * copied next to the page under a content-hashed name, and with
+ * {@code dedupe} an image used more than once per page is inlined once and
+ * referenced from every use. For markdown from untrusted sources, reading can
+ * be confined to the images below one directory.
+ */
+public class ImageOptions {
+
+    public static final long DEFAULT_STREAM_THRESHOLD = 256 * 1024;
+
+    public static final String DEFAULT_EXTERNAL_DIR = "md-images";
+
+    public static final ImageOptions DEFAULT = new ImageOptions(null, DEFAULT_STREAM_THRESHOLD, Long.MAX_VALUE,
+            DEFAULT_EXTERNAL_DIR, false);
+
+    private final File root;
+    private final long streamThreshold;
+    private final long externalizeThreshold;
+    private final String externalDir;
+    private final boolean dedupe;
+    private final File confinedTo;
+
+    /**
+     * @param root                 directory for relative sources, or null for the markdown file's directory
+     * @param streamThreshold      file size above which inlined images are streamed at write time
+     * @param externalizeThreshold file size above which images are written beside the page;
+     *                             {@code Long.MAX_VALUE} to inline everything
+     * @param externalDir          directory, relative to the page, holding externalized images
+     * @param dedupe               inline an image used several times on a page only once
+     */
+    public ImageOptions(File root, long streamThreshold, long externalizeThreshold, String externalDir, boolean dedupe) {
+        this(root, streamThreshold, externalizeThreshold, externalDir, dedupe, null);
+    }
+
+    /**
+     * @param confinedTo directory outside of which image sources are left as written; null to read any image
+     */
+    public ImageOptions(File root, long streamThreshold, long externalizeThreshold, String externalDir, boolean dedupe,
+                        File confinedTo) {
+        this.root = root;
+        this.streamThreshold = streamThreshold;
+        this.externalizeThreshold = externalizeThreshold;
+        this.externalDir = externalDir;
+        this.dedupe = dedupe;
+        this.confinedTo = confinedTo;
+    }
+
+    public File getRoot() {
+        return this.root;
+    }
+
+    public long getStreamThreshold() {
+        return this.streamThreshold;
+    }
+
+    public long getExternalizeThreshold() {
+        return this.externalizeThreshold;
+    }
+
+    public String getExternalDir() {
+        return this.externalDir;
+    }
+
+    public boolean isDedupe() {
+        return this.dedupe;
+    }
+
+    public File getConfinedTo() {
+        return this.confinedTo;
+    }
+
+    public ImageOptions withRoot(File root) {
+        return new ImageOptions(root, this.streamThreshold, this.externalizeThreshold, this.externalDir, this.dedupe,
+                this.confinedTo);
+    }
+
+    public ImageOptions withStreamThreshold(long streamThreshold) {
+        return new ImageOptions(this.root, streamThreshold, this.externalizeThreshold, this.externalDir, this.dedupe,
+                this.confinedTo);
+    }
+
+    public ImageOptions withExternalizeThreshold(long externalizeThreshold) {
+        return new ImageOptions(this.root, this.streamThreshold, externalizeThreshold, this.externalDir, this.dedupe,
+                this.confinedTo);
+    }
+
+    public ImageOptions withExternalDir(String externalDir) {
+        return new ImageOptions(this.root, this.streamThreshold, this.externalizeThreshold, externalDir, this.dedupe,
+                this.confinedTo);
+    }
+
+    public ImageOptions withDedupe(boolean dedupe) {
+        return new ImageOptions(this.root, this.streamThreshold, this.externalizeThreshold, this.externalDir, dedupe,
+                this.confinedTo);
+    }
+
+    public ImageOptions withConfinedTo(File confinedTo) {
+        return new ImageOptions(this.root, this.streamThreshold, this.externalizeThreshold, this.externalDir, this.dedupe,
+                confinedTo);
+    }
+}
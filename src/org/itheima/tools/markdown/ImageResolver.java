@@ -0,0 +1,22 @@
+package org.itheima.tools.markdown;
+
+/**
+ * Maps the source of an image, as written in the markdown, to the value
+ * emitted in the {@code src} attribute, e.g. a data URI.
+ * Engines call it once per image while rendering.
+ */
+public interface ImageResolver {
+
+    /** Leaves every source unchanged. */
+    ImageResolver NONE = new ImageResolver() {
+        public String resolve(String src) {
+            return src;
+        }
+    };
+
+    /**
+     * @param src the unescaped image source
+     * @return the unescaped value for the {@code src} attribute, never null
+     */
+    String resolve(String src);
+}
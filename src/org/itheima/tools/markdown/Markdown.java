@@ -1,5 +1,34 @@
 package org.itheima.tools.markdown;
 
+import java.io.IOException;
+
+/**
+ * A markdown to HTML engine.
+ * <p>
+ * Implementations are thread-safe: a single instance may be shared by any
+ * number of threads and {@link #parse(String)} called concurrently.
+ * {@link #render(CharSequence, Appendable, RenderContext)} is the primitive
+ * for callers that own their buffers; the {@code parse} methods are
+ * conveniences returning a String.
+ */
 public interface Markdown {
   String parse(String paramString);
+
+  /**
+   * Renders {@code text} with per-document collaborators. Engines with a
+   * rendering hook for images override this; the default rewrites the
+   * {@code <img>} tags of the finished HTML.
+   */
+  default String parse(String text, RenderContext context) {
+    return HtmlImages.rewrite(parse(text), context.getImageResolver());
+  }
+
+  /**
+   * Renders {@code text} into {@code out}. Engines that read a CharSequence
+   * or write to an Appendable natively override this; the default goes
+   * through {@link #parse(String, RenderContext)}.
+   */
+  default void render(CharSequence text, Appendable out, RenderContext context) throws IOException {
+    out.append(parse(text.toString(), context));
+  }
 }
@@ -1,6 +1,5 @@
 package org.itheima.tools.markdown;
 
-import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
@@ -9,192 +8,440 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.StringWriter;
-import java.net.URI;
-import java.net.URL;
-import org.apache.commons.codec.binary.Base64;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Collection;
 import org.apache.commons.lang.StringEscapeUtils;
-import org.apache.velocity.Template;
-import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
-import org.apache.velocity.context.Context;
-import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
-import org.itheima.tools.markdown.impl.PegdownImpl;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.itheima.tools.markdown.highlight.CodeHighlighter;
+import org.itheima.tools.markdown.impl.AdaptiveMarkdown;
+import org.itheima.tools.markdown.impl.SplitMarkdown;
+import org.itheima.tools.markdown.metrics.DocumentMetrics;
+import org.itheima.tools.markdown.metrics.RenderMetrics;
+import org.itheima.tools.markdown.metrics.Stage;
 
 public class MarkdownUtils
 {
-  private static Markdown markdown = (Markdown)new PegdownImpl();
+  private static volatile Engine engine = Engine.PEGDOWN;
+
+  /** Created from {@link #engine} on first use, so selecting an engine loads none of the others' classes. */
+  private static volatile Markdown markdown;
+
+  /**
+   * Selects the engine used by all following conversions; pegdown by default.
+   */
+  public static synchronized void setEngine(Engine selected) { engine = selected; markdown = null; }
+
+  public static Engine getEngine() { return engine; }
+
+  public static synchronized void setMarkdown(Markdown impl) { markdown = impl; }
+
+  public static Markdown getMarkdown() {
+    Markdown impl = markdown;
+    if (impl == null) {
+      synchronized (MarkdownUtils.class) {
+        impl = markdown;
+        if (impl == null) {
+          impl = engine.create();
+          markdown = impl;
+        }
+      }
+    }
+    return impl;
+  }
+
+  private static volatile RenderBudget budget = RenderBudget.DEFAULT;
+
+  /**
+   * Size and time limits per document, beyond which the fallback engine renders it.
+   */
+  public static void setBudget(RenderBudget renderBudget) { budget = renderBudget; }
+
+  public static RenderBudget getBudget() { return budget; }
+
+  private static volatile ImageOptions imageOptions = ImageOptions.DEFAULT;
+
+  /**
+   * Where relative images are found and how they are embedded; see {@link ImageOptions}.
+   */
+  public static void setImageOptions(ImageOptions options) { imageOptions = options; }
+
+  public static ImageOptions getImageOptions() { return imageOptions; }
+
+  private static volatile File assetDir;
+
+  /**
+   * Shared directory for the page css/js; pages then link to it instead of inlining 400 KB of assets each.
+   * Null, the default, writes self-contained pages.
+   */
+  public static void setAssetDir(File dir) { assetDir = dir; }
+
+  public static File getAssetDir() { return assetDir; }
+
+  private static volatile CodeHighlighter highlighter;
+
+  /**
+   * Highlights code blocks while rendering, so pages need no highlighting scripts; off by default.
+   */
+  public static void setHighlightCode(boolean highlight) { highlighter = highlight ? CodeHighlighter.shared() : null; }
+
+  public static boolean isHighlightCode() { return highlighter != null; }
+
+  private static volatile boolean serverToc;
+
+  /**
+   * Renders the table of contents into the page as a static list, so pages need neither jQuery nor zTree; off by default.
+   */
+  public static void setServerToc(boolean toc) { serverToc = toc; }
+
+  public static boolean isServerToc() { return serverToc; }
+
+  private static volatile int splitThreshold;
+
+  /**
+   * Renders documents of at least {@code chars} characters in pieces on all cores, to the same HTML; 0, the default, renders each document on one thread.
+   */
+  public static void setSplitThreshold(int chars) { splitThreshold = chars; }
+
+  public static int getSplitThreshold() { return splitThreshold; }
 
   
   public static void toHtml(String markdownPath, String toHtmlPath) throws IOException { toHtml(new File(markdownPath), new File(toHtmlPath)); }
 
   
-  public static void toHtml(File markdownFile, File toHtmlFile) throws IOException {
+  public static void toHtml(File markdownFile, File toHtmlFile) throws IOException { toHtml(markdownFile, toHtmlFile, null); }
+
+  /**
+   * @param images receives the local image files the page refers to, including missing ones; may be null
+   */
+  public static void toHtml(File markdownFile, File toHtmlFile, Collection<File> images) throws IOException {
     String name = toHtmlFile.getName();
-    toHtml(new FileInputStream(markdownFile), new FileOutputStream(toHtmlFile), name.replaceAll(".html", ""));
+    File root = imageOptions.getRoot();
+    File imageDir = root != null ? root : markdownFile.getAbsoluteFile().getParentFile();
+    File pageDir = toHtmlFile.getAbsoluteFile().getParentFile();
+    RenderCache cache = renderCache;
+    if (cache != null) {
+      toHtml(markdownFile, toHtmlFile, name.replaceAll(".html", ""), imageDir, pageDir, cache, images);
+      return;
+    } 
+    toHtml(new FileInputStream(markdownFile), new FileOutputStream(toHtmlFile), name.replaceAll(".html", ""), imageDir, pageDir, images);
   }
   
-  public static void toHtml(InputStream markdownStream, OutputStream toHtmlStream, String title) throws IOException {
-    ByteArrayOutputStream baos = null;
-    BufferedWriter writer = null;
-    try {
-      baos = new ByteArrayOutputStream();
-      int len = -1;
-      byte[] buffer = new byte[1024];
-      while ((len = markdownStream.read(buffer)) != -1) {
-        baos.write(buffer, 0, len);
-      }
-      byte[] byteArray = baos.toByteArray();
+  public static void toHtml(InputStream markdownStream, OutputStream toHtmlStream, String title) throws IOException { toHtml(markdownStream, toHtmlStream, title, imageOptions.getRoot(), null); }
 
+  /**
+   * @param imageDir directory for relative image sources, or null for the working directory
+   * @param pageDir  directory the page is written to, for externalized images; null to inline all images
+   */
+  public static void toHtml(InputStream markdownStream, OutputStream toHtmlStream, String title, File imageDir, File pageDir) throws IOException { toHtml(markdownStream, toHtmlStream, title, imageDir, pageDir, null); }
 
+  /**
+   * @param dependencies receives the local image files the page refers to, including missing ones; may be null
+   */
+  public static void toHtml(InputStream markdownStream, OutputStream toHtmlStream, String title, File imageDir, File pageDir, Collection<File> dependencies) throws IOException { toHtml(markdownStream, toHtmlStream, title, imageDir, pageDir, imageOptions, dependencies); }
 
+  /**
+   * @param options image options for this page in place of {@link #getImageOptions()}
+   */
+  public static void toHtml(InputStream markdownStream, OutputStream toHtmlStream, String title, File imageDir, File pageDir, ImageOptions options, Collection<File> dependencies) throws IOException {
+    DocumentMetrics metrics = RenderMetrics.begin(title);
+    try {
+      metrics.startStage();
+      InputBuffer input = read(markdownStream);
+      String text = input.decode();
+      metrics.endStage(Stage.READ, input.size(), metrics.bytes(text));
+      input = null;
 
-      
-      String bodyHtml = markdown.parse(new String(byteArray));
+      metrics.startStage();
+      FileImageResolver images = new FileImageResolver(imageDir, pageDir, options, ImageCache.shared());
+      CodeHighlighter codeHighlighter = highlighter;
+      boolean withToc = serverToc;
+      Rendered page = render(getMarkdown(), text, images, codeHighlighter, withToc, metrics);
+      if (dependencies != null) {
+        dependencies.addAll(images.getFiles());
+      } 
+      metrics.endStage(Stage.PARSE, metrics.bytes(text), metrics.bytes(page.html));
+      text = null;
 
-      
-      String body = getBody(bodyHtml);
+      metrics.startStage();
+      File assets = assetDir;
+      PageTemplate template = PageTemplate.get(assets != null, codeHighlighter != null, withToc);
+      String assetsHref = writeAssets(template, assets, pageDir);
+      metrics.endStage(Stage.TEMPLATE, 0, 0);
 
-      
-      String html = getTemplate(title, body);
-      
-      writer = new BufferedWriter(new OutputStreamWriter(toHtmlStream));
-      writer.write(html);
+      metrics.startStage();
+      long written = template.write(channel(toHtmlStream), title, assetsHref, page.toc, page.html, images);
+      metrics.endStage(Stage.WRITE, metrics.bytes(page.html), written);
+      releaseBody();
+    } catch (IOException | RuntimeException | Error e) {
+      metrics.setFailure(e);
+      throw e;
     } finally {
       closeIO(markdownStream);
-      closeIO(baos);
-      closeIO(writer);
       closeIO(toHtmlStream);
+      RenderMetrics.finish(metrics);
     } 
   }
-  
-  private static void closeIO(Closeable io) {
-    if (io != null) {
-      try {
-        io.close();
-      } catch (IOException e) {
-        e.printStackTrace();
+
+  private static volatile RenderCache renderCache;
+
+  /**
+   * Keeps rendered bodies in {@code cache}, so converting files again only parses the changed ones and leaves
+   * unchanged pages unwritten. Null, the default, renders every document. Only file conversions use the cache.
+   */
+  public static void setRenderCache(RenderCache cache) { renderCache = cache; }
+
+  public static RenderCache getRenderCache() { return renderCache; }
+
+  /**
+   * {@link #toHtml(File, File)} through the render cache: the markdown is parsed only when no entry matches its
+   * bytes and options, and the page is only opened for writing when it would differ from what was written last.
+   */
+  private static void toHtml(File markdownFile, File toHtmlFile, String title, File imageDir, File pageDir, RenderCache cache, Collection<File> dependencies) throws IOException {
+    DocumentMetrics metrics = RenderMetrics.begin(title);
+    try {
+      metrics.startStage();
+      InputBuffer input = read(new FileInputStream(markdownFile));
+      metrics.endStage(Stage.READ, input.size(), input.size());
+
+      metrics.startStage();
+      Markdown engine = getMarkdown();
+      CodeHighlighter codeHighlighter = highlighter;
+      boolean withToc = serverToc;
+      String key = cache.key(input.buffer(), input.size(), cacheOptions(engine, imageDir, pageDir, codeHighlighter != null, withToc));
+      FileImageResolver images = new FileImageResolver(imageDir, pageDir, imageOptions, ImageCache.shared());
+      RenderCache.Entry entry = cache.get(key);
+      CharSequence html;
+      String toc;
+      if (entry != null) {
+        // also copies externalized images back should they have been deleted
+        entry.replay(images);
+        metrics.setEngine(entry.getEngine());
+        metrics.setCache(RenderCache.HIT);
+        html = entry.getBody();
+        toc = entry.getToc();
+        metrics.endStage(Stage.PARSE, 0, metrics.bytes(html));
+      } else {
+        String text = input.decode();
+        Rendered page = render(engine, text, images, codeHighlighter, withToc, metrics);
+        metrics.setCache(RenderCache.MISS);
+        // a timed-out parse may well finish next time
+        if (!RenderBudget.TIME.equals(page.fallback)) {
+          entry = cache.put(key, page.engine, page.html, page.toc, images.getSources(), images.getFiles());
+        }
+        html = page.html;
+        toc = page.toc;
+        metrics.endStage(Stage.PARSE, metrics.bytes(text), metrics.bytes(html));
       } 
-      io = null;
-    } 
-  }
-  
-  private static String getBody(String bodyHtml) {
-    Document doc = Jsoup.parse(bodyHtml);
-    Elements imgs = doc.select("img[src]");
-    if (imgs != null) {
-      for (Element element : imgs) {
-        String src = element.attr("src");
-        src = "D:\\documents\\changgou\\讲义\\day01\\讲义\\" +src;
+      input = null;
+      if (dependencies != null) {
+        dependencies.addAll(images.getFiles());
+      } 
+
+      metrics.startStage();
+      File assets = assetDir;
+      PageTemplate template = PageTemplate.get(assets != null, codeHighlighter != null, withToc);
+      String assetsHref = writeAssets(template, assets, pageDir);
+      String pageKey = entry != null ? cache.pageKey(entry, template.getVersion(), title, assetsHref) : null;
+      metrics.endStage(Stage.TEMPLATE, 0, 0);
+
+      if (pageKey != null && cache.isWritten(toHtmlFile, pageKey)) {
+        metrics.setCache(RenderCache.UNCHANGED);
+      } else {
+        metrics.startStage();
+        FileOutputStream toHtmlStream = new FileOutputStream(toHtmlFile);
         try {
-          String image = base64Image(src);
-          element.attr("src", "data:image/jpg;base64," + image);
-        } catch (IOException e) {
-          e.printStackTrace();
+          long written = template.write(toHtmlStream.getChannel(), title, assetsHref, toc, html, images);
+          metrics.endStage(Stage.WRITE, metrics.bytes(html), written);
+        } finally {
+          closeIO(toHtmlStream);
+        } 
+        if (pageKey != null) {
+          cache.setWritten(toHtmlFile, pageKey);
         } 
       } 
-    }
-    
-    return doc.toString();
+      releaseBody();
+    } catch (IOException | RuntimeException | Error e) {
+      metrics.setFailure(e);
+      throw e;
+    } finally {
+      RenderMetrics.finish(metrics);
+    } 
   }
 
-  
-  private static String base64Image(String src) throws IOException {
-    FileInputStream fis = null;
-    ByteArrayOutputStream baos = null;
+  /**
+   * Everything besides the markdown the rendered body depends on.
+   */
+  private static String cacheOptions(Markdown engine, File imageDir, File pageDir, boolean withHighlight, boolean withToc) {
+    RenderBudget renderBudget = budget;
+    ImageOptions options = imageOptions;
+    return Engine.nameOf(engine) + "|" + renderBudget.getMaxChars() + "|" + renderBudget.getMaxMillis() + "|" + renderBudget.getFallback().getName()
+        + "|" + options.getExternalizeThreshold() + "|" + options.getExternalDir() + "|" + options.isDedupe() + "|" + options.getConfinedTo()
+        + "|" + withHighlight + "|" + withToc + "|" + imageDir + "|" + pageDir;
+  }
+
+  private static InputBuffer read(InputStream markdownStream) throws IOException {
     try {
-      String file = src;
-      if (src.startsWith("file:")) {
-        URI uri = URI.create(src);
-        URL url = uri.toURL();
-        file = url.getFile();
-      } 
-      
-      baos = new ByteArrayOutputStream();
-      fis = new FileInputStream(new File(file));
-      int len = 0;
-      byte[] buffer = new byte[1024];
-      while ((len = fis.read(buffer)) != -1) {
-        baos.write(buffer, 0, len);
+      InputBuffer input = new InputBuffer(Math.max(markdownStream.available(), 1024));
+      int len = -1;
+      byte[] buffer = new byte[8192];
+      while ((len = markdownStream.read(buffer)) != -1) {
+        input.write(buffer, 0, len);
       }
-      byte[] data = baos.toByteArray();
-      return new String(Base64.encodeBase64(data));
+      return input;
     } finally {
-      closeIO(fis);
-      closeIO(baos);
+      closeIO(markdownStream);
     } 
   }
 
+  /**
+   * Parses {@code text} into the thread's body buffer, with the image footer and, when asked, heading ids.
+   */
+  private static Rendered render(Markdown engine, String text, FileImageResolver images, CodeHighlighter codeHighlighter, boolean withToc, DocumentMetrics metrics) throws IOException {
+    text = FileImageResolver.escape(text);
+    if (engine instanceof AdaptiveMarkdown) {
+      AdaptiveMarkdown adaptive = (AdaptiveMarkdown)engine;
+      engine = adaptive.delegate(adaptive.route(text));
+      metrics.setRouted(true);
+    } 
+    String name = Engine.nameOf(engine);
+    metrics.setEngine(name);
+    int split = splitThreshold;
+    if (split > 0 && text.length() >= split) {
+      engine = new SplitMarkdown(engine, split, SplitMarkdown.DEFAULT_PIECE_CHARS);
+    } 
+    RenderBudget renderBudget = budget;
+    StringBuilder body = BODY.get();
+    body.setLength(0);
+    String fallback = renderBudget.render(engine, text, body, new RenderContext(images, codeHighlighter, metrics), metrics);
+    body.append(images.footer());
+    if (!withToc) {
+      return new Rendered(body, null, fallback != null ? renderBudget.getFallback().getName() : name, fallback);
+    } 
+    StringBuilder withIds = new StringBuilder(body.length() + 1024);
+    String toc = TableOfContents.collect(body, withIds).toHtml();
+    return new Rendered(withIds, toc, fallback != null ? renderBudget.getFallback().getName() : name, fallback);
+  }
 
-  
-  private static String getTemplate(String title, String body) {
-    VelocityEngine ve = new VelocityEngine();
-
-    String path = App.class.getResource("vm").getPath();
-    ve.setProperty(ve.FILE_RESOURCE_LOADER_PATH,path);
-
-    
-    ve.setProperty("resource.loader", "classpath");
-    ve.setProperty("classpath.resource.loader.class", ClasspathResourceLoader.class.getName());
-
-    
-    ve.setProperty("ISO-8859-1", "utf-8");
-    ve.setProperty("input.encoding", "utf-8");
-    ve.setProperty("output.encoding", "utf-8");
-    
-    ve.init();
-    Template template = ve.getTemplate("html.vm");
-
-    
-    VelocityContext ctx = new VelocityContext();
-    ctx.put("title", title);
-    try {
-      ctx.put("css", getJsOrcss("css/github-markdown.css"));
-      ctx.put("treeCSS", getJsOrcss("css/zTreeStyle.css"));
-      ctx.put("jqueryJS", getJsOrcss("js/jquery-1.4.4.min.js"));
-      ctx.put("treeCodeJS", getJsOrcss("js/jquery.ztree.all-3.5.min.js"));
-      ctx.put("treeTocJS", getJsOrcss("js/ztree_toc.min.js"));
-      ctx.put("highlightCSS", getJsOrcss("css/highlight.css"));
-      ctx.put("highlight", getJsOrcss("js/highlight.min.js"));
-      ctx.put("highlightnumber", getJsOrcss("js/highlightjs-line-numbers.min.js"));
-    } catch (IOException e) {
-      e.printStackTrace();
+  /**
+   * Writes the shared assets when pages link to them, and returns their href from {@code pageDir}; null otherwise.
+   */
+  private static String writeAssets(PageTemplate template, File assets, File pageDir) throws IOException {
+    if (assets == null) {
+      return null;
     } 
-    ctx.put("body", body);
+    template.writeAssets(assets);
+    return assetsHref(assets, pageDir);
+  }
 
-    
-    StringWriter sw = new StringWriter();
-    template.merge((Context)ctx, sw);
-    
-    return sw.toString();
+  private static WritableByteChannel channel(OutputStream out) {
+    return out instanceof FileOutputStream ? ((FileOutputStream)out).getChannel() : Channels.newChannel(out);
+  }
+
+  private static void releaseBody() {
+    if (BODY.get().capacity() > MAX_RETAINED_BODY) {
+      BODY.remove();
+    } 
+  }
+
+  /**
+   * A rendered body, before the page shell goes around it.
+   */
+  private static class Rendered {
+    final CharSequence html;
+    final String toc;
+    final String engine;
+    final String fallback;
+
+    Rendered(CharSequence html, String toc, String engine, String fallback) {
+      this.html = html;
+      this.toc = toc;
+      this.engine = engine;
+      this.fallback = fallback;
+    }
   }
   
-  private static String getJsOrcss(String src) throws IOException {
-    InputStream fis = null;
-    ByteArrayOutputStream baos = null;
+  /**
+   * The asset directory relative to the page, or as a file URL when the page location is unknown.
+   */
+  private static String assetsHref(File assets, File pageDir) {
+    if (pageDir == null) {
+      String url = assets.getAbsoluteFile().toURI().toString();
+      return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    } 
+    Path relative;
     try {
-      baos = new ByteArrayOutputStream();
-      
-      fis = MarkdownUtils.class.getResourceAsStream(src);
-      int len = 0;
-      byte[] buffer = new byte[1024];
-      while ((len = fis.read(buffer)) != -1) {
-        baos.write(buffer, 0, len);
+      relative = pageDir.getAbsoluteFile().toPath().normalize().relativize(assets.getAbsoluteFile().toPath().normalize());
+    } catch (IllegalArgumentException e) {
+      // on another drive there is no relative path
+      return assetsHref(assets, null);
+    }
+    StringBuilder href = new StringBuilder();
+    for (Path segment : relative) {
+      if (href.length() > 0) {
+        href.append('/');
       }
-      String text = baos.toString();
-      text = text.replaceAll("(\r\n|\r|\n|\n\r)", "");
-      return text;
-    } finally {
-      closeIO(fis);
-      closeIO(baos);
-    } 
+      try {
+        href.append(URLEncoder.encode(segment.toString(), "UTF-8").replace("+", "%20"));
+      } catch (UnsupportedEncodingException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return href.length() == 0 ? "." : href.toString();
   }
 
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Body buffer reused by the documents rendered on a thread; one grown past
+   * {@link #MAX_RETAINED_BODY} chars is dropped after its document.
+   */
+  private static final ThreadLocal<StringBuilder> BODY = new ThreadLocal<StringBuilder>() {
+    protected StringBuilder initialValue() { return new StringBuilder(64 * 1024); }
+  };
+
+  private static final int MAX_RETAINED_BODY = 4 * 1024 * 1024;
+
+  /**
+   * The raw input, decoded in place: UTF-8 unless a UTF-8 or UTF-16 byte order mark says otherwise.
+   */
+  private static class InputBuffer extends ByteArrayOutputStream {
+    InputBuffer(int size) { super(size); }
+
+    byte[] buffer() { return this.buf; }
+
+    String decode() {
+      if (this.count >= 3 && (this.buf[0] & 0xFF) == 0xEF && (this.buf[1] & 0xFF) == 0xBB && (this.buf[2] & 0xFF) == 0xBF) {
+        return new String(this.buf, 3, this.count - 3, UTF_8);
+      }
+      if (this.count >= 2 && (this.buf[0] & 0xFF) == 0xFE && (this.buf[1] & 0xFF) == 0xFF) {
+        return new String(this.buf, 2, this.count - 2, Charset.forName("UTF-16BE"));
+      }
+      if (this.count >= 2 && (this.buf[0] & 0xFF) == 0xFF && (this.buf[1] & 0xFF) == 0xFE) {
+        return new String(this.buf, 2, this.count - 2, Charset.forName("UTF-16LE"));
+      }
+      return new String(this.buf, 0, this.count, UTF_8);
+    }
+  }
+
+  private static void closeIO(Closeable io) {
+    if (io != null) {
+      try {
+        io.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      } 
+      io = null;
+    } 
+  }
   
+  /**
+   * Drops the cached page template and assets, e.g. after {@code html.vm} was edited.
+   */
+  public static void invalidateTemplateCache() { PageTemplate.invalidate(); }
+
   private static String htmlConvert(String str) { return StringEscapeUtils.escapeHtml(str); }
 }
@@ -0,0 +1,464 @@
+package org.itheima.tools.markdown;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.context.Context;
+import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
+
+/**
+ * Process-wide page shell: the Velocity engine, the compiled {@code html.vm}
+ * and the normalized css/js assets it inlines.
+ * <p>
+ * Built once on first use and shared by all threads; a compiled Velocity
+ * template may be merged concurrently. Call {@link #invalidate()} after the
+ * template or assets change to have the next page rebuild the shell.
+ * <p>
+ * Everything but the title, the body and the table of contents is the same
+ * on every page, so the template is merged only once, with markers in those
+ * slots and the static text around them encoded to UTF-8 into read-only
+ * direct buffers.
+ * {@link #write(WritableByteChannel, String, String, String, CharSequence, FileImageResolver)}
+ * hands those buffers to the channel as they are, in one gathering write
+ * together with the page's own bytes.
+ * <p>
+ * The {@link #get(boolean) linked} shell references the assets instead of
+ * inlining them. {@link #writeAssets(File)} copies them once into a shared
+ * directory under content-hashed names, so browsers can cache them across
+ * pages and across releases. Shells for pages whose code was highlighted on
+ * the server leave out the highlighting scripts, and shells with a
+ * {@link TableOfContents} rendered on the server leave out jQuery and zTree.
+ */
+public final class PageTemplate {
+
+    private static final String TEMPLATE_NAME = "html.vm";
+
+    private static final String[][] ASSETS = {
+            {"css", "css/github-markdown.css"},
+            {"treeCSS", "css/zTreeStyle.css"},
+            {"jqueryJS", "js/jquery-1.4.4.min.js"},
+            {"treeCodeJS", "js/jquery.ztree.all-3.5.min.js"},
+            {"treeTocJS", "js/ztree_toc.min.js"},
+            {"highlightCSS", "css/highlight.css"},
+            {"highlight", "js/highlight.min.js"},
+            {"highlightnumber", "js/highlightjs-line-numbers.min.js"},
+            {"tocCSS", "css/toc.css"}
+    };
+
+    /** Assets only client-side highlighting needs. */
+    private static final Set<String> HIGHLIGHT_SCRIPTS = new HashSet<>(Arrays.asList("highlight", "highlightnumber"));
+
+    /** Assets only the client-side table of contents needs. */
+    private static final Set<String> TREE_ASSETS = new HashSet<>(Arrays.asList("treeCSS", "jqueryJS", "treeCodeJS",
+            "treeTocJS"));
+
+    private static final String TOC_CSS = "tocCSS";
+
+    private static final Pattern NEW_LINES = Pattern.compile("(\r\n|\r|\n|\n\r)");
+
+    private static final char TITLE_SLOT = '\uE010';
+    private static final char BODY_SLOT = '\uE011';
+    private static final char ASSETS_SLOT = '\uE012';
+    private static final char TOC_SLOT = '\uE013';
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Loaded shells, indexed by {@link #variant(boolean, boolean, boolean)}. */
+    private static final AtomicReferenceArray<PageTemplate> SHELLS = new AtomicReferenceArray<>(8);
+
+    private final Template template;
+    private final boolean isLinked;
+    private final boolean serverHighlight;
+    private final boolean serverToc;
+    /** Template variable to inlined content, or to href when linked. */
+    private final Map<String, String> assets;
+    /** Hashed file name to resource path; empty unless linked. */
+    private final Map<String, String> files;
+    private final Set<String> writtenTo = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Static text, {@code shell.length == slots.length + 1}; slot i sits between shell i and i + 1. */
+    private final ByteBuffer[] shell;
+    private final char[] slots;
+    /** SHA-256 of the shell and its slots. */
+    private volatile String version;
+
+    private PageTemplate(Template template, boolean isLinked, boolean serverHighlight, boolean serverToc,
+                         Map<String, String> assets, Map<String, String> files) {
+        this.template = template;
+        this.isLinked = isLinked;
+        this.serverHighlight = serverHighlight;
+        this.serverToc = serverToc;
+        this.assets = assets;
+        this.files = files;
+
+        StringWriter sw = new StringWriter();
+        merge(String.valueOf(TITLE_SLOT), String.valueOf(BODY_SLOT), String.valueOf(TOC_SLOT), sw);
+        String merged = sw.toString();
+        List<ByteBuffer> shell = new ArrayList<>();
+        StringBuilder slots = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < merged.length(); i++) {
+            char c = merged.charAt(i);
+            if (c == TITLE_SLOT || c == BODY_SLOT || c == ASSETS_SLOT || c == TOC_SLOT) {
+                shell.add(encode(merged.substring(start, i)));
+                slots.append(c);
+                start = i + 1;
+            }
+        }
+        shell.add(encode(merged.substring(start)));
+        this.shell = shell.toArray(new ByteBuffer[shell.size()]);
+        this.slots = slots.toString().toCharArray();
+    }
+
+    private static ByteBuffer encode(String text) {
+        byte[] bytes = text.getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * The self-contained shell, with every asset inlined.
+     */
+    public static PageTemplate get() {
+        return get(false);
+    }
+
+    /**
+     * @param isLinked whether pages reference the assets written by {@link #writeAssets(File)}
+     */
+    public static PageTemplate get(boolean isLinked) {
+        return get(isLinked, false);
+    }
+
+    /**
+     * @param isLinked        whether pages reference the assets written by {@link #writeAssets(File)}
+     * @param serverHighlight whether the pages' code blocks are already highlighted
+     */
+    public static PageTemplate get(boolean isLinked, boolean serverHighlight) {
+        return get(isLinked, serverHighlight, false);
+    }
+
+    /**
+     * @param isLinked        whether pages reference the assets written by {@link #writeAssets(File)}
+     * @param serverHighlight whether the pages' code blocks are already highlighted
+     * @param serverToc       whether pages come with their {@link TableOfContents}
+     */
+    public static PageTemplate get(boolean isLinked, boolean serverHighlight, boolean serverToc) {
+        int variant = variant(isLinked, serverHighlight, serverToc);
+        PageTemplate current = SHELLS.get(variant);
+        if (current == null) {
+            synchronized (PageTemplate.class) {
+                current = SHELLS.get(variant);
+                if (current == null) {
+                    current = load(isLinked, serverHighlight, serverToc);
+                    SHELLS.set(variant, current);
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Identifies the text this shell writes around a body: different for every
+     * variant and for every edit of the template or its assets.
+     */
+    public String getVersion() {
+        String version = this.version;
+        if (version == null) {
+            // only the render cache asks, so uncached runs never load the digest providers
+            MessageDigest digest = DigestUtils.getSha256Digest();
+            for (ByteBuffer buffer : this.shell) {
+                digest.update(buffer.duplicate());
+            }
+            digest.update(new String(this.slots).getBytes(UTF_8));
+            version = Hex.encodeHexString(digest.digest());
+            this.version = version;
+        }
+        return version;
+    }
+
+    private static int variant(boolean isLinked, boolean serverHighlight, boolean serverToc) {
+        return (isLinked ? 1 : 0) | (serverHighlight ? 2 : 0) | (serverToc ? 4 : 0);
+    }
+
+    /**
+     * Drops the cached shells; the next {@link #get()} reloads the template and assets.
+     */
+    public static void invalidate() {
+        synchronized (PageTemplate.class) {
+            for (int i = 0; i < SHELLS.length(); i++) {
+                SHELLS.set(i, null);
+            }
+        }
+    }
+
+    /**
+     * Copies the assets of a linked shell into {@code dir}, once per directory;
+     * files already there are kept, their names being derived from their content.
+     */
+    public void writeAssets(File dir) throws IOException {
+        String key = dir.getAbsolutePath();
+        if (this.writtenTo.contains(key)) {
+            return;
+        }
+        synchronized (this.writtenTo) {
+            if (this.writtenTo.contains(key)) {
+                return;
+            }
+            Files.createDirectories(dir.toPath());
+            for (Map.Entry<String, String> file : this.files.entrySet()) {
+                Path target = dir.toPath().resolve(file.getKey());
+                if (Files.isRegularFile(target)) {
+                    continue;
+                }
+                Path temp = Files.createTempFile(dir.toPath(), file.getKey(), ".tmp");
+                try {
+                    Files.write(temp, readResource(file.getValue()));
+                    try {
+                        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            }
+            this.writtenTo.add(key);
+        }
+    }
+
+    private void merge(String title, String body, String toc, Writer out) {
+        VelocityContext ctx = new VelocityContext();
+        ctx.put("title", title);
+        ctx.put("linked", this.isLinked);
+        ctx.put("serverHighlight", this.serverHighlight);
+        ctx.put("serverToc", this.serverToc);
+        ctx.put("toc", toc);
+        for (Map.Entry<String, String> asset : this.assets.entrySet()) {
+            ctx.put(asset.getKey(), asset.getValue());
+        }
+        ctx.put("body", body);
+
+        this.template.merge((Context) ctx, out);
+    }
+
+    /**
+     * Writes a page to {@code channel}: the pre-encoded shell with the escaped
+     * title and the body in their slots. Without placeholders the body is
+     * encoded once and the whole page goes out as one gathering write;
+     * otherwise the body is streamed through {@link FileImageResolver#wrap(Writer)}
+     * between the shell writes.
+     *
+     * @param assetsHref URL of the asset directory relative to the page; only read by linked shells
+     * @param toc        the {@link TableOfContents#toHtml() table of contents}; only read by shells that show one
+     * @param images     the page's images, or null
+     * @return the number of bytes written
+     */
+    public long write(WritableByteChannel channel, String title, String assetsHref, String toc, CharSequence body,
+                      FileImageResolver images) throws IOException {
+        ByteBuffer titleBytes = escape(title);
+        ByteBuffer assetsBytes = this.isLinked ? escape(assetsHref) : null;
+        ByteBuffer tocBytes = this.serverToc ? UTF_8.encode(toc) : null;
+
+        if (images == null || !images.needsWrap(body)) {
+            ByteBuffer bodyBytes = UTF_8.encode(CharBuffer.wrap(body));
+            ByteBuffer[] page = new ByteBuffer[this.shell.length + this.slots.length];
+            for (int i = 0; i < this.slots.length; i++) {
+                page[2 * i] = this.shell[i].duplicate();
+                page[2 * i + 1] = (this.slots[i] == TITLE_SLOT ? titleBytes : this.slots[i] == ASSETS_SLOT ? assetsBytes
+                        : this.slots[i] == TOC_SLOT ? tocBytes : bodyBytes).duplicate();
+            }
+            page[page.length - 1] = this.shell[this.shell.length - 1].duplicate();
+            return writeFully(channel, page);
+        }
+
+        long written = 0;
+        for (int i = 0; i < this.slots.length; i++) {
+            written += writeFully(channel, this.shell[i].duplicate());
+            if (this.slots[i] == TITLE_SLOT) {
+                written += writeFully(channel, titleBytes.duplicate());
+            } else if (this.slots[i] == ASSETS_SLOT) {
+                written += writeFully(channel, assetsBytes.duplicate());
+            } else if (this.slots[i] == TOC_SLOT) {
+                written += writeFully(channel, tocBytes.duplicate());
+            } else {
+                CountingChannel counter = new CountingChannel(channel);
+                Writer writer = images.wrap(new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(counter), UTF_8)));
+                writeBody(body, writer);
+                writer.flush();
+                written += counter.count;
+            }
+        }
+        return written + writeFully(channel, this.shell[this.shell.length - 1].duplicate());
+    }
+
+    private static ByteBuffer escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 16);
+        HtmlImages.appendAttributeValue(escaped, text);
+        return UTF_8.encode(CharBuffer.wrap(escaped));
+    }
+
+    private static long writeFully(WritableByteChannel channel, ByteBuffer... buffers) throws IOException {
+        long written = 0;
+        if (channel instanceof GatheringByteChannel) {
+            GatheringByteChannel gathering = (GatheringByteChannel) channel;
+            int first = 0;
+            while (first < buffers.length) {
+                written += gathering.write(buffers, first, buffers.length - first);
+                while (first < buffers.length && !buffers[first].hasRemaining()) {
+                    first++;
+                }
+            }
+        } else {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer);
+                }
+            }
+        }
+        return written;
+    }
+
+    private static PageTemplate load(boolean isLinked, boolean serverHighlight, boolean serverToc) {
+        VelocityEngine ve = new VelocityEngine();
+
+        String path = App.class.getResource("vm").getPath();
+        ve.setProperty(VelocityEngine.FILE_RESOURCE_LOADER_PATH, path);
+
+        ve.setProperty("resource.loader", "classpath");
+        ve.setProperty("classpath.resource.loader.class", ClasspathResourceLoader.class.getName());
+
+        ve.setProperty("ISO-8859-1", "utf-8");
+        ve.setProperty("input.encoding", "utf-8");
+        ve.setProperty("output.encoding", "utf-8");
+
+        ve.init();
+        Template template = ve.getTemplate(TEMPLATE_NAME);
+
+        Map<String, String> assets = new LinkedHashMap<>();
+        Map<String, String> files = new LinkedHashMap<>();
+        for (String[] asset : ASSETS) {
+            if (serverHighlight && HIGHLIGHT_SCRIPTS.contains(asset[0])
+                    || (serverToc ? TREE_ASSETS.contains(asset[0]) : TOC_CSS.equals(asset[0]))) {
+                continue;
+            }
+            try {
+                byte[] data = readResource(asset[1]);
+                if (isLinked) {
+                    String name = hashedName(asset[1], data);
+                    assets.put(asset[0], ASSETS_SLOT + "/" + name);
+                    files.put(name, asset[1]);
+                } else {
+                    assets.put(asset[0], NEW_LINES.matcher(new String(data, UTF_8)).replaceAll(""));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return new PageTemplate(template, isLinked, serverHighlight, serverToc, Collections.unmodifiableMap(assets),
+                Collections.unmodifiableMap(files));
+    }
+
+    /**
+     * {@code js/jquery-1.4.4.min.js} becomes {@code jquery-1.4.4.min.<8 hex digits>.js}.
+     */
+    private static String hashedName(String path, byte[] data) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return name.substring(0, dot) + "." + DigestUtils.sha256Hex(data).substring(0, 8) + name.substring(dot);
+    }
+
+    private static byte[] readResource(String src) throws IOException {
+        InputStream fis = PageTemplate.class.getResourceAsStream(src);
+        if (fis == null) {
+            throw new IOException("Missing resource: " + src);
+        }
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            int len = 0;
+            byte[] buffer = new byte[8192];
+            while ((len = fis.read(buffer)) != -1) {
+                baos.write(buffer, 0, len);
+            }
+            return baos.toByteArray();
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Writes a body held in a buffer in chunks, without calling its {@code toString()}.
+     */
+    private static void writeBody(CharSequence html, Writer writer) throws IOException {
+        int length = html.length();
+        if (!(html instanceof StringBuilder)) {
+            writer.append(html);
+            return;
+        }
+        char[] chunk = new char[Math.min(length, 8192)];
+        for (int start = 0; start < length; start += chunk.length) {
+            int end = Math.min(length, start + chunk.length);
+            ((StringBuilder) html).getChars(start, end, chunk, 0);
+            writer.write(chunk, 0, end - start);
+        }
+    }
+
+    /**
+     * Counts the bytes of a body streamed to the channel; closing it leaves the channel open.
+     */
+    private static class CountingChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+        private long count;
+
+        CountingChannel(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+            int n = this.channel.write(src);
+            this.count += n;
+            return n;
+        }
+
+        public boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package org.itheima.tools.markdown;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.itheima.tools.markdown.impl.SplitMarkdown;
+import org.itheima.tools.markdown.metrics.DocumentMetrics;
+import org.pegdown.ParsingTimeoutException;
+
+/**
+ * Per-document size and time limits for {@link Markdown#render(CharSequence, Appendable, RenderContext)}.
+ * <p>
+ * A document longer than {@code maxChars}, or whose parse takes longer than
+ * {@code maxMillis} or fails, is rendered again with the linear-time fallback
+ * engine (commonmark by default) instead of stalling the caller or producing
+ * an empty page. The time limit is enforced by parsing on a watchdog thread,
+ * whose allocations are counted towards the document's metrics; pegdown
+ * additionally stops itself at its own parsing timeout, the other engines run
+ * in linear time and finish shortly after being abandoned.
+ * Documents the fallback engine renders anyway skip all of this.
+ */
+public class RenderBudget {
+
+    public static final String SIZE = "size";
+    public static final String TIME = "time";
+    public static final String ERROR = "error";
+
+    /** 2 s, pegdown's own default parsing timeout, and 2M chars. */
+    public static final RenderBudget DEFAULT = new RenderBudget(2 * 1024 * 1024, 2000, Engine.COMMONMARK);
+
+    /** Only time-limited budgets load this, and with it the pool. */
+    private static class Watchdog {
+        static final ExecutorService POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "md-parse-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private final int maxChars;
+    private final long maxMillis;
+    private final Engine fallback;
+    private volatile Markdown fallbackMarkdown;
+
+    /**
+     * @param maxChars  longest document handed to a non-fallback engine; 0 for no limit
+     * @param maxMillis longest parse before falling back; 0 for no limit
+     * @param fallback  a linear-time engine
+     */
+    public RenderBudget(int maxChars, long maxMillis, Engine fallback) {
+        this.maxChars = maxChars;
+        this.maxMillis = maxMillis;
+        this.fallback = fallback;
+    }
+
+    public int getMaxChars() {
+        return this.maxChars;
+    }
+
+    public long getMaxMillis() {
+        return this.maxMillis;
+    }
+
+    public Engine getFallback() {
+        return this.fallback;
+    }
+
+    public RenderBudget withMaxChars(int maxChars) {
+        return new RenderBudget(maxChars, this.maxMillis, this.fallback);
+    }
+
+    public RenderBudget withMaxMillis(long maxMillis) {
+        return new RenderBudget(this.maxChars, maxMillis, this.fallback);
+    }
+
+    /**
+     * Renders {@code text} into {@code out}, falling back as needed. Output of
+     * a failed engine is discarded; an engine on the watchdog thread writes
+     * into {@code out} through a guard that drops its writes once it is
+     * abandoned, so it never touches the fallback's output. Without a
+     * time limit the engine renders on the calling thread, and with neither
+     * limit it does so without any fallback. The images a failed engine
+     * resolved are forgotten before the fallback engine renders.
+     *
+     * @return why the fallback engine rendered the document, or null if the engine did
+     */
+    public String render(final Markdown engine, final CharSequence text, final StringBuilder out, final RenderContext context,
+                       final DocumentMetrics metrics) throws IOException {
+        if (this.maxChars <= 0 && this.maxMillis <= 0 || Engine.nameOf(engine).equals(this.fallback.getName())) {
+            // no budget, or nothing to fall back to: straight into out
+            engine.render(text, out, context);
+            return null;
+        }
+        if (this.maxChars > 0 && text.length() > this.maxChars) {
+            return fallback(engine, text, out, context, SIZE, metrics);
+        }
+        final Attempt attempt = new Attempt(context, out);
+        int mark = out.length();
+        if (this.maxMillis <= 0) {
+            try {
+                engine.render(text, out, attempt.context);
+            } catch (RuntimeException | StackOverflowError e) {
+                out.setLength(mark);
+                attempt.abandon();
+                return fallback(engine, text, out, context, reason(e), metrics);
+            }
+            return null;
+        }
+
+        Future<Void> parse = Watchdog.POOL.submit(new Callable<Void>() {
+            public Void call() throws IOException {
+                attempt.start(metrics);
+                try {
+                    engine.render(text, attempt, attempt.context);
+                    return null;
+                } finally {
+                    attempt.finish(metrics);
+                }
+            }
+        });
+        try {
+            parse.get(this.maxMillis, TimeUnit.MILLISECONDS);
+            metrics.addAllocatedBytes(attempt.allocatedBytes(metrics));
+            return null;
+        } catch (TimeoutException e) {
+            parse.cancel(true);
+            attempt.abandon();
+            out.setLength(mark);
+            metrics.addAllocatedBytes(attempt.allocatedBytes(metrics));
+            return fallback(engine, text, out, context, TIME, metrics);
+        } catch (ExecutionException e) {
+            attempt.abandon();
+            out.setLength(mark);
+            metrics.addAllocatedBytes(attempt.allocatedBytes(metrics));
+            return fallback(engine, text, out, context, reason(e.getCause()), metrics);
+        } catch (InterruptedException e) {
+            parse.cancel(true);
+            attempt.abandon();
+            out.setLength(mark);
+            metrics.addAllocatedBytes(attempt.allocatedBytes(metrics));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing");
+        }
+    }
+
+    private String fallback(Markdown engine, CharSequence text, StringBuilder out, RenderContext context, String reason,
+                          DocumentMetrics metrics) throws IOException {
+        Markdown markdown = this.fallbackMarkdown;
+        if (markdown == null) {
+            markdown = this.fallback.create();
+            this.fallbackMarkdown = markdown;
+        }
+        if (engine instanceof SplitMarkdown) {
+            markdown = ((SplitMarkdown) engine).withDelegate(markdown);
+        }
+        metrics.setFallback(reason);
+        metrics.setEngine(this.fallback.getName());
+        markdown.render(text, out, context);
+        return reason;
+    }
+
+    /**
+     * The images and output of one engine's go at a document. Abandoning it
+     * forgets the images it resolved, so the fallback resolves the document
+     * afresh, and drops any images and output a watchdog thread left running
+     * still produces. It also measures what the watchdog thread allocates for
+     * the document.
+     */
+    private static class Attempt implements ImageResolver, Appendable {
+        final RenderContext context;
+        private final StringBuilder out;
+        private final ImageResolver images;
+        private final FileImageResolver.Mark mark;
+        private boolean abandoned;
+        private volatile Thread worker;
+        private volatile long allocationStart;
+        private volatile long allocated = -1;
+
+        Attempt(RenderContext context, StringBuilder out) {
+            this.out = out;
+            this.images = context.getImageResolver();
+            this.mark = this.images instanceof FileImageResolver ? ((FileImageResolver) this.images).mark() : null;
+            this.context = this.images == ImageResolver.NONE ? context
+                    : new RenderContext(this, context.getCodeHighlighter(), context.getMetrics());
+        }
+
+        /** On the watchdog thread, before rendering. */
+        void start(DocumentMetrics metrics) {
+            this.allocationStart = metrics.allocatedBytes(Thread.currentThread());
+            this.worker = Thread.currentThread();
+        }
+
+        /** On the watchdog thread, after rendering or failing. */
+        void finish(DocumentMetrics metrics) {
+            this.allocated = metrics.allocatedBytes(Thread.currentThread()) - this.allocationStart;
+        }
+
+        /**
+         * What the watchdog thread allocated: all of it once it is done, so far while it still renders.
+         */
+        long allocatedBytes(DocumentMetrics metrics) {
+            long bytes = this.allocated;
+            Thread thread = this.worker;
+            if (bytes < 0 && thread != null) {
+                bytes = metrics.allocatedBytes(thread) - this.allocationStart;
+            }
+            return Math.max(bytes, 0);
+        }
+
+        public synchronized String resolve(String src) {
+            return this.abandoned ? src : this.images.resolve(src);
+        }
+
+        public synchronized Appendable append(CharSequence csq) {
+            if (!this.abandoned) {
+                this.out.append(csq);
+            }
+            return this;
+        }
+
+        public synchronized Appendable append(CharSequence csq, int start, int end) {
+            if (!this.abandoned) {
+                this.out.append(csq, start, end);
+            }
+            return this;
+        }
+
+        public synchronized Appendable append(char c) {
+            if (!this.abandoned) {
+                this.out.append(c);
+            }
+            return this;
+        }
+
+        synchronized void abandon() {
+            this.abandoned = true;
+            if (this.mark != null) {
+                ((FileImageResolver) this.images).rollback(this.mark);
+            }
+        }
+    }
+
+    private static String reason(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ParsingTimeoutException) {
+                return TIME;
+            }
+        }
+        return ERROR;
+    }
+}
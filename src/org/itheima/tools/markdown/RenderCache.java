@@ -0,0 +1,418 @@
+package org.itheima.tools.markdown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Rendered bodies on disk, so a batch skips parsing documents that have not
+ * changed since the last run, and leaves their pages alone when not a byte
+ * of them would change.
+ * <p>
+ * An entry is keyed by the SHA-256 of the markdown bytes and of everything
+ * else the body depends on: engine, options, directories and a format
+ * version. It keeps the body and table of contents as UTF-8, together with
+ * the image sources the body resolved and the size and modification time of
+ * each image file; an entry is only used while those files are unchanged.
+ * Images themselves are not stored, they are read when the page is written.
+ * A second kind of record remembers, per output file, the key of the page last
+ * written there and the file's size and time, so an unchanged page is not
+ * rewritten.
+ * <p>
+ * Each entry is one file, written to a temporary name and moved into place,
+ * and memory-mapped when read, so parallel workers, and several processes
+ * sharing a directory, never see a partial entry; an entry that cannot be
+ * read counts as missing. Reads refresh an entry's modification time, and
+ * once the files exceed the size bound the least recently used are deleted.
+ */
+public class RenderCache {
+
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    /** Document result recorded in the metrics: rendered, taken from the cache, or not written at all. */
+    public static final String MISS = "miss";
+    public static final String HIT = "hit";
+    public static final String UNCHANGED = "unchanged";
+
+    private static final int MAGIC = 0x4D44524B;
+    /** Bump whenever the rendering of a body or the entry layout changes. */
+    private static final int FORMAT = 3;
+
+    private static final String ENTRY = ".entry";
+    private static final String PAGE = ".page";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Path dir;
+    private final long maxBytes;
+    /** Total size of the files in {@link #dir}, or -1 until first counted. */
+    private long bytes = -1;
+
+    public RenderCache(File dir) {
+        this(dir, DEFAULT_MAX_BYTES);
+    }
+
+    public RenderCache(File dir, long maxBytes) {
+        this.dir = dir.toPath().toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+    }
+
+    public File getDir() {
+        return this.dir.toFile();
+    }
+
+    /**
+     * @param markdown the raw document bytes
+     * @param options  everything besides the bytes the rendered body depends on
+     */
+    public String key(byte[] markdown, int length, String options) {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        digest.update((FORMAT + "\n" + options + "\n").getBytes(UTF_8));
+        digest.update(markdown, 0, length);
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * @return the entry, or null if there is none or a file it depends on changed
+     */
+    public Entry get(String key) {
+        Path file = entryFile(key);
+        ByteBuffer data;
+        try {
+            data = map(file);
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            if (data.getInt() != MAGIC || data.getInt() != FORMAT || !key.equals(string(data))) {
+                return null;
+            }
+            String engine = string(data);
+            List<File> files = new ArrayList<>();
+            StringBuilder fingerprint = new StringBuilder();
+            for (int n = data.getInt(); n > 0; n--) {
+                File image = new File(string(data));
+                long size = data.getLong();
+                long modified = data.getLong();
+                if (size != sizeOf(image) || modified != image.lastModified()) {
+                    return null;
+                }
+                files.add(image);
+                appendFingerprint(fingerprint, image);
+            }
+            List<String> sources = new ArrayList<>();
+            for (int n = data.getInt(); n > 0; n--) {
+                sources.add(string(data));
+            }
+            String toc = string(data);
+            CharBuffer body = UTF_8.decode(slice(data));
+            touch(file);
+            return new Entry(key, engine, body, toc, sources, fingerprint.toString());
+        } catch (RuntimeException e) {
+            // truncated or foreign file
+            return null;
+        }
+    }
+
+    /**
+     * Stores a freshly rendered body; failures are reported and otherwise ignored.
+     *
+     * @return the entry as {@link #get(String)} would return it
+     */
+    public Entry put(String key, String engine, CharSequence body, String toc, List<String> sources,
+                     Collection<File> images) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (File image : images) {
+            appendFingerprint(fingerprint, image);
+        }
+        Entry entry = new Entry(key, engine, body, toc, sources, fingerprint.toString());
+        try {
+            ByteBuffer encoded = UTF_8.encode(CharBuffer.wrap(body));
+            ByteArrayOutputStream header = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(header);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            writeString(out, key);
+            writeString(out, engine);
+            out.writeInt(images.size());
+            for (File image : images) {
+                writeString(out, image.getPath());
+                out.writeLong(sizeOf(image));
+                out.writeLong(image.lastModified());
+            }
+            out.writeInt(sources.size());
+            for (String source : sources) {
+                writeString(out, source);
+            }
+            writeString(out, toc != null ? toc : "");
+            out.writeInt(encoded.remaining());
+            out.flush();
+            write(entryFile(key), ByteBuffer.wrap(header.toByteArray()), encoded);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return entry;
+    }
+
+    /**
+     * The key of a page: its entry, the shell and title around it and the
+     * images inlined into it.
+     */
+    public String pageKey(Entry entry, String template, String title, String assetsHref) {
+        return DigestUtils.sha256Hex(entry.key + "\n" + template + "\n" + title + "\n" + assetsHref + "\n"
+                + entry.fingerprint);
+    }
+
+    /**
+     * Whether {@code page} holds what was written under {@code pageKey} and has not been touched since.
+     */
+    public boolean isWritten(File page, String pageKey) {
+        try {
+            ByteBuffer data = map(pageFile(page));
+            return pageKey.equals(string(data)) && data.getLong() == page.length()
+                    && data.getLong() == page.lastModified();
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    public void setWritten(File page, String pageKey) {
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream(96);
+            DataOutputStream out = new DataOutputStream(record);
+            writeString(out, pageKey);
+            out.writeLong(page.length());
+            out.writeLong(page.lastModified());
+            out.flush();
+            write(pageFile(page), ByteBuffer.wrap(record.toByteArray()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Deletes every entry and page record.
+     */
+    public synchronized void clear() throws IOException {
+        for (Path file : files()) {
+            Files.deleteIfExists(file);
+        }
+        this.bytes = 0;
+    }
+
+    private Path entryFile(String key) {
+        return this.dir.resolve(key.substring(0, 2)).resolve(key + ENTRY);
+    }
+
+    private Path pageFile(File page) {
+        String key = DigestUtils.sha256Hex(page.getAbsoluteFile().toPath().normalize().toString());
+        return this.dir.resolve(key.substring(0, 2)).resolve(key + PAGE);
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void write(Path file, ByteBuffer... data) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        long size = 0;
+        try {
+            FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+            try {
+                for (ByteBuffer buffer : data) {
+                    while (buffer.hasRemaining()) {
+                        size += channel.write(buffer);
+                    }
+                }
+            } finally {
+                channel.close();
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        added(size);
+    }
+
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // evicted meanwhile
+        }
+    }
+
+    /**
+     * Counts {@code size} new bytes and, past the bound, deletes the least
+     * recently used files down to three quarters of it.
+     */
+    private synchronized void added(long size) throws IOException {
+        if (this.bytes < 0) {
+            this.bytes = 0;
+            for (Path file : files()) {
+                this.bytes += sizeOf(file);
+            }
+        } else {
+            this.bytes += size;
+        }
+        if (this.bytes <= this.maxBytes) {
+            return;
+        }
+        List<Path> files = files();
+        final List<Long> modified = new ArrayList<>(files.size());
+        for (Path file : files) {
+            modified.add(file.toFile().lastModified());
+        }
+        List<Integer> order = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(modified.get(a), modified.get(b));
+            }
+        });
+        long total = 0;
+        for (Path file : files) {
+            total += sizeOf(file);
+        }
+        for (int i = 0; i < order.size() && total > this.maxBytes / 4 * 3; i++) {
+            Path file = files.get(order.get(i));
+            long length = sizeOf(file);
+            try {
+                Files.deleteIfExists(file);
+                total -= length;
+            } catch (IOException e) {
+                // still mapped on some platforms; try again next time
+            }
+        }
+        this.bytes = total;
+    }
+
+    private List<Path> files() throws IOException {
+        final List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(this.dir)) {
+            return files;
+        }
+        Files.walkFileTree(this.dir, new SimpleFileVisitor<Path>() {
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(ENTRY) || name.endsWith(PAGE)) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private static long sizeOf(Path file) {
+        return file.toFile().length();
+    }
+
+    /** -1 for a missing image, so an image appearing later invalidates the entry. */
+    private static long sizeOf(File image) {
+        return image.isFile() ? image.length() : -1;
+    }
+
+    private static void appendFingerprint(StringBuilder fingerprint, File image) {
+        fingerprint.append(image.getPath()).append('|').append(sizeOf(image)).append('|')
+                .append(image.lastModified()).append('\n');
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String string(ByteBuffer data) {
+        return UTF_8.decode(slice(data)).toString();
+    }
+
+    /** The next length-prefixed run of bytes. */
+    private static ByteBuffer slice(ByteBuffer data) {
+        int length = data.getInt();
+        ByteBuffer slice = data.slice();
+        slice.limit(length);
+        data.position(data.position() + length);
+        return slice;
+    }
+
+    /**
+     * A rendered body with what it needs to be written again.
+     */
+    public static class Entry {
+        private final String key;
+        private final String engine;
+        private final CharSequence body;
+        private final String toc;
+        private final List<String> sources;
+        private final String fingerprint;
+
+        Entry(String key, String engine, CharSequence body, String toc, List<String> sources, String fingerprint) {
+            this.key = key;
+            this.engine = engine;
+            this.body = body;
+            this.toc = toc;
+            this.sources = Collections.unmodifiableList(new ArrayList<>(sources));
+            this.fingerprint = fingerprint;
+        }
+
+        /** The engine that rendered the body. */
+        public String getEngine() {
+            return this.engine;
+        }
+
+        public CharSequence getBody() {
+            return this.body;
+        }
+
+        public String getToc() {
+            return this.toc;
+        }
+
+        /**
+         * Resolves the body's images again, in the original order, so
+         * {@code images} writes the placeholders the body contains.
+         */
+        public void replay(ImageResolver images) {
+            for (String source : this.sources) {
+                images.resolve(source);
+            }
+        }
+    }
+}
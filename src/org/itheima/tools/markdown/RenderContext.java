@@ -0,0 +1,49 @@
+package org.itheima.tools.markdown;
+
+import org.itheima.tools.markdown.highlight.CodeHighlighter;
+import org.itheima.tools.markdown.metrics.DocumentMetrics;
+import org.itheima.tools.markdown.metrics.RenderMetrics;
+
+/**
+ * Per-document collaborators handed to {@link Markdown#parse(String, RenderContext)}.
+ */
+public class RenderContext {
+
+    public static final RenderContext DEFAULT = new RenderContext(ImageResolver.NONE);
+
+    private final ImageResolver images;
+    private final CodeHighlighter highlighter;
+    private final DocumentMetrics metrics;
+
+    public RenderContext(ImageResolver images) {
+        this(images, null);
+    }
+
+    /**
+     * @param highlighter highlights code blocks while rendering, or null to leave them to the page's scripts
+     */
+    public RenderContext(ImageResolver images, CodeHighlighter highlighter) {
+        this(images, highlighter, RenderMetrics.DISABLED);
+    }
+
+    /**
+     * @param metrics receives what rendering allocates on threads other than the caller's
+     */
+    public RenderContext(ImageResolver images, CodeHighlighter highlighter, DocumentMetrics metrics) {
+        this.images = images;
+        this.highlighter = highlighter;
+        this.metrics = metrics;
+    }
+
+    public ImageResolver getImageResolver() {
+        return this.images;
+    }
+
+    public CodeHighlighter getCodeHighlighter() {
+        return this.highlighter;
+    }
+
+    public DocumentMetrics getMetrics() {
+        return this.metrics;
+    }
+}
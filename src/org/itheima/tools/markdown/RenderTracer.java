@@ -0,0 +1,60 @@
+package org.itheima.tools.markdown;
+
+import java.io.PrintStream;
+
+/**
+ * Receives node-level diagnostics from a {@link Markdown} engine.
+ * <p>
+ * Engines check {@link #isEnabled()} once per document and skip all tracing
+ * work when it returns {@code false}, so {@link #NONE} costs nothing.
+ * Implementations must be thread-safe when the engine is shared.
+ */
+public interface RenderTracer {
+
+    RenderTracer NONE = new RenderTracer() {
+        public boolean isEnabled() {
+            return false;
+        }
+
+        public void node(String engine, String type, int depth, int startIndex, int endIndex) {
+        }
+    };
+
+    boolean isEnabled();
+
+    /**
+     * One AST node, reported in document order.
+     *
+     * @param engine     short engine name, e.g. {@code pegdown}
+     * @param type       node class name without package
+     * @param depth      0 for the document root
+     * @param startIndex source offset, or -1 if the engine does not track positions
+     * @param endIndex   source offset (exclusive), or -1
+     */
+    void node(String engine, String type, int depth, int startIndex, int endIndex);
+
+    /**
+     * Writes one line per node to a stream, e.g. {@code System.err}.
+     */
+    class Printing implements RenderTracer {
+        private final PrintStream out;
+
+        public Printing(PrintStream out) {
+            this.out = out;
+        }
+
+        public boolean isEnabled() {
+            return true;
+        }
+
+        public void node(String engine, String type, int depth, int startIndex, int endIndex) {
+            StringBuilder line = new StringBuilder(64);
+            line.append("engine=").append(engine)
+                    .append(" node=").append(type)
+                    .append(" depth=").append(depth)
+                    .append(" start=").append(startIndex)
+                    .append(" end=").append(endIndex);
+            this.out.println(line);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.itheima.tools.markdown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Converts a small sample through every engine and page variant, so that a
+ * JVM recording a class-data-sharing archive ({@code bin/md -train}) loads
+ * the classes a conversion needs: the parsers, the highlighter, the table of
+ * contents and Velocity with the page templates. Later runs map them from the
+ * archive instead of loading and verifying them from the jars.
+ */
+public class StartupTraining {
+
+    private static final String SAMPLE = "# Training\n\n"
+            + "Some *emphasis*, **strong** text, `code`, a [link](other.html) and ~~struck~~ words.\n\n"
+            + "## Lists\n\n"
+            + "- one\n- two\n    1. nested\n    2. ordered\n\n"
+            + "> A quote with a [reference][ref].\n\n"
+            + "[ref]: http://example.com \"Example\"\n\n"
+            + "## Tables\n\n"
+            + "| Name | Value |\n|:-----|------:|\n| a | 1 |\n| b | 2 |\n\n"
+            + "## Code\n\n"
+            + "```java\npublic class Sample {\n    // comment\n    String s = \"text\";\n    int n = 42;\n}\n```\n\n"
+            + "```xml\n<root attr=\"value\"><!-- comment --></root>\n```\n\n"
+            + "    indented code\n\n"
+            + "---\n\n"
+            + "<div>inline html</div>\n\n"
+            + "![remote](http://example.com/image.png)\n";
+
+    /**
+     * Restores the conversion settings afterwards, the engine included.
+     */
+    public static void run() throws IOException {
+        Engine selected = MarkdownUtils.getEngine();
+        Markdown markdown = MarkdownUtils.getMarkdown();
+        boolean highlight = MarkdownUtils.isHighlightCode();
+        boolean toc = MarkdownUtils.isServerToc();
+        byte[] sample = SAMPLE.getBytes(Charset.forName("UTF-8"));
+        try {
+            for (Engine engine : Engine.values()) {
+                MarkdownUtils.setEngine(engine);
+                for (int variant = 0; variant < 4; variant++) {
+                    MarkdownUtils.setHighlightCode((variant & 1) != 0);
+                    MarkdownUtils.setServerToc((variant & 2) != 0);
+                    MarkdownUtils.toHtml(new ByteArrayInputStream(sample), new ByteArrayOutputStream(), "Training",
+                            null, null);
+                }
+            }
+            for (int variant = 0; variant < 8; variant++) {
+                PageTemplate.get((variant & 1) != 0, (variant & 2) != 0, (variant & 4) != 0);
+            }
+        } finally {
+            MarkdownUtils.setEngine(selected);
+            MarkdownUtils.setMarkdown(markdown);
+            MarkdownUtils.setHighlightCode(highlight);
+            MarkdownUtils.setServerToc(toc);
+        }
+    }
+}
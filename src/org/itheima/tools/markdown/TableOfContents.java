@@ -0,0 +1,253 @@
+package org.itheima.tools.markdown;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
+/**
+ * The heading outline of a rendered page, as a static nested list.
+ * <p>
+ * {@link #collect(CharSequence, StringBuilder)} copies a body in one forward
+ * scan, giving each {@code <h1>} to {@code <h6>} that has none an id derived
+ * from its text the way GitHub does: lower case, spaces to dashes, other
+ * punctuation dropped, {@code -1}, {@code -2}... appended to repeats. The ids
+ * only depend on the headings, so links to a section survive edits elsewhere
+ * in the document. Headings in raw HTML are found like rendered ones, as the
+ * client-side tree did.
+ */
+public final class TableOfContents {
+
+    private final List<Heading> headings = new ArrayList<>();
+
+    private TableOfContents() {
+    }
+
+    /**
+     * Copies {@code html} to {@code out}, adding missing heading ids.
+     *
+     * @return the outline of the headings found
+     */
+    public static TableOfContents collect(CharSequence html, StringBuilder out) {
+        TableOfContents toc = new TableOfContents();
+        Set<String> ids = new HashSet<>();
+        int length = html.length();
+        int copied = 0;
+        int tag = indexOfHeading(html, 0);
+        while (tag >= 0) {
+            int level = html.charAt(tag + 2) - '0';
+            int openEnd = tagEnd(html, tag + 3);
+            int close = openEnd < 0 ? -1 : indexOfIgnoreCase(html, "</h" + level, openEnd);
+            if (close < 0) {
+                break;
+            }
+            String text = FileImageResolver.unescape(text(html, openEnd + 1, close));
+            String id = attribute(html, tag + 3, openEnd, "id");
+            if (id == null) {
+                id = unique(slug(StringEscapeUtils.unescapeHtml(text)), ids);
+                out.append(html, copied, tag + 3).append(" id=\"");
+                HtmlImages.appendAttributeValue(out, id);
+                out.append('"');
+                copied = tag + 3;
+            } else {
+                id = FileImageResolver.unescape(StringEscapeUtils.unescapeHtml(id));
+                ids.add(id);
+            }
+            toc.headings.add(new Heading(level, id, text.trim()));
+            tag = indexOfHeading(html, close);
+        }
+        out.append(html, copied, length);
+        return toc;
+    }
+
+    public boolean isEmpty() {
+        return this.headings.isEmpty();
+    }
+
+    /**
+     * Nested {@code <ul>} lists linking to the headings; a heading deeper than
+     * the one before it opens a list inside that one's item, whatever the
+     * number of levels skipped.
+     */
+    public String toHtml() {
+        if (this.headings.isEmpty()) {
+            return "";
+        }
+        StringBuilder html = new StringBuilder(this.headings.size() * 64);
+        int[] open = new int[7];
+        int depth = 0;
+        for (Heading heading : this.headings) {
+            if (depth == 0 || heading.level > open[depth - 1]) {
+                html.append(depth == 0 ? "<ul>\n" : "\n<ul>\n");
+                open[depth++] = heading.level;
+            } else {
+                while (depth > 1 && heading.level < open[depth - 1] && heading.level <= open[depth - 2]) {
+                    html.append("</li>\n</ul>\n");
+                    depth--;
+                }
+                html.append("</li>\n");
+                open[depth - 1] = Math.min(open[depth - 1], heading.level);
+            }
+            html.append("<li><a href=\"#");
+            HtmlImages.appendAttributeValue(html, heading.id);
+            html.append("\">").append(heading.text).append("</a>");
+        }
+        while (depth-- > 0) {
+            html.append("</li>\n</ul>");
+            if (depth > 0) {
+                html.append('\n');
+            }
+        }
+        return html.toString();
+    }
+
+    /**
+     * {@code "Hello, World!"} becomes {@code hello-world}; letters of any
+     * script are kept, so Chinese headings keep their text.
+     */
+    static String slug(String text) {
+        StringBuilder slug = new StringBuilder(text.length());
+        String trimmed = text.trim();
+        for (int i = 0; i < trimmed.length(); ) {
+            int c = trimmed.codePointAt(i);
+            if (Character.isLetterOrDigit(c) || c == '-' || c == '_') {
+                slug.appendCodePoint(Character.toLowerCase(c));
+            } else if (Character.isWhitespace(c)) {
+                slug.append('-');
+            }
+            i += Character.charCount(c);
+        }
+        return slug.length() == 0 ? "section" : slug.toString();
+    }
+
+    private static String unique(String slug, Set<String> ids) {
+        String id = slug;
+        for (int n = 1; !ids.add(id); n++) {
+            id = slug + "-" + n;
+        }
+        return id;
+    }
+
+    /** The markup between {@code start} and {@code end} without its tags. */
+    private static String text(CharSequence html, int start, int end) {
+        StringBuilder text = new StringBuilder(end - start);
+        boolean inTag = false;
+        for (int i = start; i < end; i++) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                inTag = true;
+            } else if (c == '>' && inTag) {
+                inTag = false;
+            } else if (!inTag) {
+                text.append(c == '\n' ? ' ' : c);
+            }
+        }
+        return text.toString();
+    }
+
+    /** The raw value of attribute {@code name} in the tag between {@code start} and {@code end}, or null. */
+    private static String attribute(CharSequence html, int start, int end, String name) {
+        int i = start;
+        while (i < end) {
+            while (i < end && (Character.isWhitespace(html.charAt(i)) || html.charAt(i) == '/')) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < end && !Character.isWhitespace(html.charAt(i)) && "=/".indexOf(html.charAt(i)) < 0) {
+                i++;
+            }
+            String attribute = html.subSequence(nameStart, i).toString();
+            while (i < end && Character.isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            if (i >= end || html.charAt(i) != '=') {
+                continue;
+            }
+            i++;
+            while (i < end && Character.isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            int valueStart;
+            int valueEnd;
+            char quote = i < end ? html.charAt(i) : 0;
+            if (quote == '"' || quote == '\'') {
+                valueStart = i + 1;
+                valueEnd = valueStart;
+                while (valueEnd < end && html.charAt(valueEnd) != quote) {
+                    valueEnd++;
+                }
+                i = Math.min(valueEnd + 1, end);
+            } else {
+                valueStart = i;
+                while (i < end && !Character.isWhitespace(html.charAt(i))) {
+                    i++;
+                }
+                valueEnd = i;
+            }
+            if (name.equalsIgnoreCase(attribute)) {
+                return html.subSequence(valueStart, valueEnd).toString();
+            }
+        }
+        return null;
+    }
+
+    /** The index of the {@code >} closing the tag, skipping quoted values, or -1. */
+    private static int tagEnd(CharSequence html, int from) {
+        char quote = 0;
+        for (int i = from; i < html.length(); i++) {
+            char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** The next {@code <h1>}..{@code <h6>} open tag at or after {@code from}, or -1. */
+    private static int indexOfHeading(CharSequence html, int from) {
+        for (int i = from; i + 3 < html.length(); i++) {
+            if (html.charAt(i) == '<' && (html.charAt(i + 1) | 0x20) == 'h') {
+                char level = html.charAt(i + 2);
+                char next = html.charAt(i + 3);
+                if (level >= '1' && level <= '6' && (next == '>' || Character.isWhitespace(next))) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfIgnoreCase(CharSequence html, String s, int from) {
+        for (int i = from; i + s.length() <= html.length(); i++) {
+            int j = 0;
+            while (j < s.length() && Character.toLowerCase(html.charAt(i + j)) == s.charAt(j)) {
+                j++;
+            }
+            if (j == s.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Heading {
+        private final int level;
+        private final String id;
+        /** Escaped HTML text, tags removed. */
+        private final String text;
+
+        Heading(int level, String id, String text) {
+            this.level = level;
+            this.id = id;
+            this.text = text;
+        }
+    }
+}
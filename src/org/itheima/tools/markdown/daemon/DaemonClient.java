@@ -0,0 +1,156 @@
+package org.itheima.tools.markdown.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.itheima.tools.markdown.App;
+import org.itheima.tools.markdown.MarkdownUtils;
+
+/**
+ * Forwards a conversion to a running {@link RenderDaemon}:
+ * <pre>
+ * DaemonClient -h in.md [out.html | -]
+ * DaemonClient -stop
+ * </pre>
+ * {@code -} writes the page to standard output. Without a reachable daemon
+ * the file is converted in this JVM, as {@code App -h} would. A daemon lost
+ * once it has started answering fails the conversion instead, as part of the
+ * page may already be written.
+ */
+public class DaemonClient {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: DaemonClient -h in.md [out.html | -] | -stop");
+            System.exit(2);
+        }
+        boolean stop = "-stop".equalsIgnoreCase(args[0]);
+        boolean render = ("-h".equalsIgnoreCase(args[0]) || "-html".equalsIgnoreCase(args[0])) && args.length >= 2;
+        if (!stop && !render) {
+            // not for the daemon; let App explain
+            App.main(args);
+            return;
+        }
+        String[] request = new String[stop ? 0 : args.length - 1];
+        System.arraycopy(args, 1, request, 0, request.length);
+
+        int status;
+        try {
+            status = send(RenderDaemon.defaultPortFile(), stop ? RenderDaemon.STOP : RenderDaemon.RENDER, request);
+        } catch (IOException e) {
+            if (stop) {
+                System.err.println("No render daemon running");
+                System.exit(1);
+            }
+            status = renderLocally(request);
+        }
+        if (status != RenderDaemon.OK) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * @return the daemon's status, or {@link RenderDaemon#FAILED} if the connection broke during its answer
+     * @throws IOException if no daemon could be reached or it sent nothing back
+     */
+    static int send(File portFile, String command, String[] args) throws IOException {
+        List<String> lines = Files.readAllLines(portFile.toPath(), Charset.forName("UTF-8"));
+        if (lines.size() < 2) {
+            throw new IOException("Incomplete port file " + portFile);
+        }
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(lines.get(0).trim())),
+                    CONNECT_TIMEOUT_MILLIS);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(lines.get(1).trim());
+            out.writeUTF(command);
+            out.writeUTF(new File("").getAbsolutePath());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            int length = in.readInt();
+            try {
+                return receive(in, length, args.length >= 2 && RenderDaemon.STREAM.equals(args[1]));
+            } catch (IOException e) {
+                System.err.println("Lost the render daemon: " + e);
+                return RenderDaemon.FAILED;
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid port file " + portFile);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Reads the rest of the daemon's answer after its first frame length, writing the page to standard output when
+     * it streams one.
+     */
+    private static int receive(DataInputStream in, int length, boolean stream) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        while (length != 0) {
+            if (length < 0) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            while (length > 0) {
+                int len = in.read(buffer, 0, Math.min(length, buffer.length));
+                if (len < 0) {
+                    throw new EOFException();
+                }
+                if (stream) {
+                    System.out.write(buffer, 0, len);
+                }
+                length -= len;
+            }
+            length = in.readInt();
+        }
+        System.out.flush();
+        int status = in.readInt();
+        String message = in.readUTF();
+        if (!message.isEmpty()) {
+            System.err.println(message);
+        }
+        return status;
+    }
+
+    /**
+     * @return {@link RenderDaemon#OK}, or the non-zero exit status of the failed conversion
+     */
+    private static int renderLocally(String[] args) {
+        if (args.length >= 2 && RenderDaemon.STREAM.equals(args[1])) {
+            File markdownFile = new File(args[0]);
+            try {
+                String name = markdownFile.getName();
+                MarkdownUtils.toHtml(Files.newInputStream(markdownFile.toPath()), System.out,
+                        name.endsWith(".md") ? name.substring(0, name.length() - 3) : name,
+                        markdownFile.getAbsoluteFile().getParentFile(), null);
+                return RenderDaemon.OK;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return RenderDaemon.FAILED;
+            }
+        }
+        String[] appArgs = new String[args.length + 1];
+        appArgs[0] = "-h";
+        System.arraycopy(args, 0, appArgs, 1, args.length);
+        return App.execute(appArgs);
+    }
+}
@@ -0,0 +1,308 @@
+package org.itheima.tools.markdown.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Hex;
+import org.itheima.tools.markdown.MarkdownUtils;
+import org.itheima.tools.markdown.PageTemplate;
+
+/**
+ * Renders for {@link DaemonClient} in a long-running JVM, so single-file
+ * conversions skip JVM startup, parser generation and template loading, and
+ * run on warmed-up, compiled code. Engine, image and page options are those
+ * the daemon was started with.
+ * <p>
+ * Java has Unix domain sockets only from 16 on, later than the Java 8 this
+ * runs on and the JDK 14 it is built with, so the daemon listens on an
+ * ephemeral loopback port instead. It writes the port and a random token to the
+ * {@link #defaultPortFile() port file}, readable by its owner only where the
+ * file system allows, and serves only clients presenting that token.
+ * Requests are handled on a fixed pool, each connection carrying one request
+ * and dropped once the client has been silent for {@link #READ_TIMEOUT_MILLIS}:
+ * <pre>
+ * client: UTF token, UTF command, UTF working directory, int n, n x UTF argument
+ * daemon: [int n &gt; 0, n page bytes]..., int 0, int status, UTF message
+ * </pre>
+ * A page asked for on the connection is streamed in frames as it is
+ * written, and the status follows it.
+ */
+public class RenderDaemon {
+
+    static final String RENDER = "render";
+    static final String STOP = "stop";
+
+    /** Output argument asking for the page on the connection instead of in a file. */
+    static final String STREAM = "-";
+
+    static final int OK = 0;
+    static final int FAILED = 1;
+    static final int DENIED = 2;
+
+    /** Longest wait for a client's next bytes, so idle clients cannot hold the pool. */
+    static final int READ_TIMEOUT_MILLIS = 10000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File portFile;
+    private final int threads;
+    private volatile ServerSocket server;
+
+    public RenderDaemon(File portFile, int threads) {
+        this.portFile = portFile;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * {@code .md-daemon} in the user's home directory.
+     */
+    public static File defaultPortFile() {
+        return new File(System.getProperty("user.home"), ".md-daemon");
+    }
+
+    /**
+     * Serves requests until a client sends {@code stop}.
+     */
+    public void run() throws IOException {
+        byte[] secret = new byte[16];
+        new SecureRandom().nextBytes(secret);
+        final String token = Hex.encodeHexString(secret);
+
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.server = server;
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads, new WorkerFactory());
+        Thread cleanup = new Thread("md-daemon-cleanup") {
+            public void run() {
+                RenderDaemon.this.portFile.delete();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(cleanup);
+        try {
+            warmUp();
+            writePortFile(server.getLocalPort(), token);
+            System.out.println("Render daemon listening on " + server.getLocalSocketAddress());
+            while (!server.isClosed()) {
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketException e) {
+                    // closed by stop
+                    break;
+                }
+                pool.execute(new Runnable() {
+                    public void run() {
+                        serve(socket, token);
+                    }
+                });
+            }
+        } finally {
+            server.close();
+            pool.shutdown();
+            this.portFile.delete();
+            Runtime.getRuntime().removeShutdownHook(cleanup);
+        }
+    }
+
+    /**
+     * Builds the parser and the page shell before the first client waits for them.
+     */
+    private static void warmUp() {
+        MarkdownUtils.getMarkdown().parse("# Warm-up\n\nSome *text*, `code` and a [link](a.html).\n");
+        PageTemplate.get(MarkdownUtils.getAssetDir() != null, MarkdownUtils.isHighlightCode(), MarkdownUtils.isServerToc());
+    }
+
+    private void serve(Socket socket, String token) {
+        try {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            try {
+                if (!token.equals(in.readUTF())) {
+                    respond(out, DENIED, "Invalid token");
+                    return;
+                }
+                String command = in.readUTF();
+                File workDir = new File(in.readUTF());
+                String[] args = new String[in.readInt()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = in.readUTF();
+                }
+                if (STOP.equals(command)) {
+                    respond(out, OK, "");
+                    out.flush();
+                    this.server.close();
+                } else if (RENDER.equals(command) && args.length >= 1) {
+                    render(workDir, args, out);
+                } else {
+                    respond(out, FAILED, "Unknown request: " + command);
+                }
+            } finally {
+                out.flush();
+            }
+        } catch (SocketTimeoutException e) {
+            // the client went silent; its connection is dropped
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * {@code args} as after {@code -h}: the markdown file, then the page, {@code -} or nothing.
+     */
+    private static void render(File workDir, String[] args, DataOutputStream out) throws IOException {
+        File markdownFile = resolve(workDir, args[0]);
+        String htmlPath = args.length >= 2 ? args[1] : args[0].replace(".md", ".html");
+        try {
+            if (STREAM.equals(htmlPath)) {
+                File root = MarkdownUtils.getImageOptions().getRoot();
+                MarkdownUtils.toHtml(new FileInputStream(markdownFile), new FrameOutputStream(out),
+                        title(markdownFile.getName(), ".md"),
+                        root != null ? root : markdownFile.getAbsoluteFile().getParentFile(), null);
+                respond(out, OK, "");
+            } else {
+                MarkdownUtils.toHtml(markdownFile, resolve(workDir, htmlPath));
+                respond(out, OK, "");
+            }
+        } catch (IOException | RuntimeException e) {
+            StringWriter trace = new StringWriter();
+            e.printStackTrace(new PrintWriter(trace));
+            respond(out, FAILED, trace.toString());
+        }
+    }
+
+    private static String title(String name, String extension) {
+        return name.endsWith(extension) ? name.substring(0, name.length() - extension.length()) : name;
+    }
+
+    private static File resolve(File workDir, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(workDir, path);
+    }
+
+    /**
+     * Ends the page, if any, and sends the status.
+     */
+    private static void respond(DataOutputStream out, int status, String message) throws IOException {
+        out.writeInt(0);
+        out.writeInt(status);
+        // writeUTF is limited to 64 KB of encoded text
+        out.writeUTF(message.length() > 10000 ? message.substring(0, 10000) : message);
+    }
+
+    private void writePortFile(int port, String token) throws IOException {
+        Path file = this.portFile.toPath().toAbsolutePath();
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try {
+                Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                // not a POSIX file system; the home directory's permissions apply
+            }
+            OutputStream out = Files.newOutputStream(temp);
+            try {
+                out.write((port + "\n" + token + "\n").getBytes(UTF_8));
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Sends what is written to it as page frames. Closing it only sends what is buffered, the connection stays
+     * open for the status.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int count;
+
+        FrameOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public void write(int b) throws IOException {
+            if (this.count == this.buffer.length) {
+                flush();
+            }
+            this.buffer[this.count++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len >= this.buffer.length) {
+                flush();
+                frame(b, off, len);
+                return;
+            }
+            if (len > this.buffer.length - this.count) {
+                flush();
+            }
+            System.arraycopy(b, off, this.buffer, this.count, len);
+            this.count += len;
+        }
+
+        public void flush() throws IOException {
+            if (this.count > 0) {
+                frame(this.buffer, 0, this.count);
+                this.count = 0;
+            }
+        }
+
+        public void close() throws IOException {
+            flush();
+        }
+
+        private void frame(byte[] b, int off, int len) throws IOException {
+            this.out.writeInt(len);
+            this.out.write(b, off, len);
+            this.out.flush();
+        }
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "md-daemon-" + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
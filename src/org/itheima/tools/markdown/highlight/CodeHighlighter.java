@@ -0,0 +1,118 @@
+package org.itheima.tools.markdown.highlight;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.itheima.tools.markdown.HtmlImages;
+
+/**
+ * Highlights code blocks while rendering, producing the markup highlight.js
+ * and its line-number plugin build in the browser: a line-number column and
+ * the code with its tokens in {@code hljs-*} spans, styled by the page's
+ * {@code highlight.css}. Pages rendered this way need neither script.
+ * <p>
+ * The language is taken from the first word of the fence info string; blocks
+ * without one, or in a language this class does not know, are escaped but not
+ * tokenized. Results are kept in an LRU keyed by language and SHA-256 of the
+ * code and bounded by the total length of the cached markup, so a snippet
+ * repeated across the pages of a course is tokenized once.
+ */
+public class CodeHighlighter {
+
+    public static final long DEFAULT_MAX_CHARS = 16L * 1024 * 1024;
+
+    private static final CodeHighlighter SHARED = new CodeHighlighter(DEFAULT_MAX_CHARS);
+
+    private final long maxChars;
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long chars;
+
+    public CodeHighlighter(long maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    public static CodeHighlighter shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param info the fence info string, or null for an indented block
+     * @param code the literal code, not escaped
+     * @return a {@code <pre>} element
+     */
+    public String highlight(String info, String code) {
+        Language language = Language.forInfo(info);
+        String name = language != null ? language.name : Language.firstWord(info);
+        String key = name + ':' + DigestUtils.sha256Hex(code);
+        synchronized (this) {
+            String html = this.entries.get(key);
+            if (html != null) {
+                return html;
+            }
+        }
+
+        StringBuilder html = new StringBuilder(code.length() * 2 + 128);
+        html.append("<pre>");
+        int lines = countLines(code);
+        if (lines > 1) {
+            html.append("<code class=\"hljs hljs-line-numbers\" style=\"float:left\">");
+            for (int i = 1; i <= lines; i++) {
+                html.append(i).append('\n');
+            }
+            html.append("</code>");
+        }
+        html.append("<code class=\"hljs");
+        if (!name.isEmpty()) {
+            html.append(' ');
+            HtmlImages.appendAttributeValue(html, name);
+        }
+        html.append("\">");
+        Scanner.highlight(language != null ? language : Language.PLAIN, code, html);
+        html.append("</code></pre>");
+
+        String result = html.toString();
+        put(key, result);
+        return result;
+    }
+
+    /**
+     * Lines as the line-number plugin counts them: a final line without a
+     * line break counts, an empty one after the last break does not.
+     */
+    static int countLines(String code) {
+        if (code.isEmpty()) {
+            return 0;
+        }
+        int lines = 0;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c == '\n' || c == '\r' && (i + 1 == code.length() || code.charAt(i + 1) != '\n')) {
+                lines++;
+            }
+        }
+        char last = code.charAt(code.length() - 1);
+        return last == '\n' || last == '\r' ? lines : lines + 1;
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+        this.chars = 0;
+    }
+
+    private synchronized void put(String key, String html) {
+        if (html.length() > this.maxChars / 4) {
+            return;
+        }
+        String previous = this.entries.put(key, html);
+        if (previous != null) {
+            this.chars -= previous.length();
+        }
+        this.chars += html.length();
+        Iterator<String> eldest = this.entries.values().iterator();
+        while (this.chars > this.maxChars && eldest.hasNext()) {
+            this.chars -= eldest.next().length();
+            eldest.remove();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.itheima.tools.markdown.highlight;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The languages {@link CodeHighlighter} knows, by fence name. Each is a
+ * handful of word lists and lexical flags for {@link Scanner}; markup and
+ * stylesheets have scanners of their own.
+ */
+enum Language {
+
+    JAVA("java", "java jsp",
+            "abstract assert break case catch class const continue default do else enum extends final finally for "
+                    + "goto if implements import instanceof interface native new package private protected public "
+                    + "return static strictfp super switch synchronized this throw throws transient try void volatile "
+                    + "while var boolean byte char double float int long short",
+            "true false null",
+            "String Object Integer Long Double Boolean Character Math System List Map Set ArrayList HashMap Exception",
+            "//", "\"'", Scanner.BLOCK_COMMENTS | Scanner.ANNOTATIONS),
+
+    KOTLIN("kotlin", "kotlin kt",
+            "abstract as break by catch class companion continue data do else enum for fun if import in "
+                    + "interface internal is lateinit object open operator override package private protected public "
+                    + "return sealed super this throw try typealias val var when while",
+            "true false null",
+            "println print listOf mapOf setOf arrayOf String Int Long Double Boolean Any Unit",
+            "//", "\"'", Scanner.BLOCK_COMMENTS | Scanner.ANNOTATIONS | Scanner.TRIPLE_QUOTES),
+
+    JAVASCRIPT("javascript", "javascript js jsx node",
+            "async await break case catch class const continue debugger default delete do else export extends "
+                    + "finally for from function if import in instanceof let new of return static super switch this "
+                    + "throw try typeof var void while with yield",
+            "true false null undefined NaN Infinity",
+            "console window document Math JSON Object Array String Number Promise require module exports",
+            "//", "\"'`", Scanner.BLOCK_COMMENTS),
+
+    TYPESCRIPT("typescript", "typescript ts tsx",
+            "abstract as async await break case catch class const constructor continue declare default delete do "
+                    + "else enum export extends finally for from function get if implements import in instanceof "
+                    + "interface keyof let module namespace new of private protected public readonly return set "
+                    + "static super switch this throw try type typeof var void while yield any boolean number string",
+            "true false null undefined",
+            "console window document Math JSON Object Array String Number Promise",
+            "//", "\"'`", Scanner.BLOCK_COMMENTS | Scanner.ANNOTATIONS),
+
+    CPP("cpp", "c h cpp c++ cc cxx hpp objectivec objc",
+            "auto break case catch char class const constexpr continue default delete do double else enum explicit "
+                    + "extern float for friend goto if inline int long namespace new operator private protected "
+                    + "public register return short signed sizeof static struct switch template this throw try "
+                    + "typedef typename union unsigned using virtual void volatile while",
+            "true false NULL nullptr",
+            "std string vector map cout cin endl printf scanf malloc free size_t",
+            "//", "\"'", Scanner.BLOCK_COMMENTS | Scanner.PREPROCESSOR),
+
+    CSHARP("cs", "cs csharp c#",
+            "abstract as base bool break byte case catch char checked class const continue decimal default delegate "
+                    + "do double else enum event explicit extern finally fixed float for foreach goto if implicit in "
+                    + "int interface internal is lock long namespace new object operator out override params private "
+                    + "protected public readonly ref return sbyte sealed short sizeof static string struct switch "
+                    + "this throw try typeof uint ulong unsafe ushort using var virtual void volatile while async await",
+            "true false null",
+            "Console String List Dictionary Task Math",
+            "//", "\"'", Scanner.BLOCK_COMMENTS | Scanner.PREPROCESSOR),
+
+    GO("go", "go golang",
+            "break case chan const continue default defer else fallthrough for func go goto if import interface "
+                    + "map package range return select struct switch type var",
+            "true false nil iota",
+            "append cap close copy delete len make new panic print println recover string int error byte rune",
+            "//", "\"'`", Scanner.BLOCK_COMMENTS),
+
+    PYTHON("python", "python py python3 gyp",
+            "and as assert async await break class continue def del elif else except exec finally for from global "
+                    + "if import in is lambda nonlocal not or pass print raise return try while with yield",
+            "True False None",
+            "self len range int str float list dict set tuple open super isinstance enumerate zip",
+            "#", "\"'", Scanner.ANNOTATIONS | Scanner.TRIPLE_QUOTES),
+
+    PHP("php", "php php3 php5",
+            "abstract and as break case catch class clone const continue declare default do echo else elseif empty "
+                    + "enddeclare endfor endforeach endif endswitch endwhile extends final finally for foreach "
+                    + "function global goto if implements include include_once instanceof interface isset list "
+                    + "namespace new or print private protected public require require_once return static switch "
+                    + "throw trait try unset use var while",
+            "true false null TRUE FALSE NULL",
+            "array count strlen explode implode",
+            "// #", "\"'", Scanner.BLOCK_COMMENTS | Scanner.VARIABLES),
+
+    BASH("bash", "bash sh shell zsh console",
+            "if then else elif fi for while until in do done case esac function return select time break continue "
+                    + "local export readonly declare unset",
+            "true false",
+            "echo cd ls pwd cat grep sed awk find chmod chown mkdir rm cp mv tar curl wget sudo source exit set test "
+                    + "read printf kill ps",
+            "#", "\"'", Scanner.VARIABLES | Scanner.COMMENT_AT_WORD_START),
+
+    SQL("sql", "sql mysql plsql",
+            "select from where and or not insert into values update set delete create table drop alter add index "
+                    + "primary key foreign references join inner left right outer full on as group by order having "
+                    + "limit offset distinct union all case when then else end in is like between exists view "
+                    + "database use default constraint unique auto_increment engine charset asc desc int integer "
+                    + "varchar char text date datetime timestamp decimal float double bigint tinyint",
+            "true false null",
+            "count sum avg min max now concat substring ifnull coalesce",
+            "--", "\"'`", Scanner.BLOCK_COMMENTS | Scanner.CASE_INSENSITIVE),
+
+    JSON("json", "json", "", "true false null", "", "", "\"", Scanner.STRING_KEYS),
+
+    YAML("yaml", "yaml yml", "", "true false null yes no on off ~", "", "#", "\"'",
+            Scanner.LINE_KEYS | Scanner.COMMENT_AT_WORD_START),
+
+    PROPERTIES("properties", "properties ini conf cfg toml", "", "true false", "", "# ! ;", "\"",
+            Scanner.LINE_KEYS | Scanner.COMMENT_AT_WORD_START),
+
+    XML("xml", "xml html xhtml htm svg rss vm", "", "", "", "", "\"'", 0),
+
+    CSS("css", "css less scss", "", "", "", "", "\"'", Scanner.BLOCK_COMMENTS),
+
+    /** Escaped only. */
+    PLAIN("plaintext", "plaintext plain text txt nohighlight no-highlight", "", "", "", "", "", 0);
+
+    private static final Map<String, Language> BY_ALIAS = new HashMap<>();
+
+    static {
+        for (Language language : values()) {
+            for (String alias : language.aliases) {
+                BY_ALIAS.put(alias, language);
+            }
+        }
+    }
+
+    /** Class name highlight.js gives the language. */
+    final String name;
+    private final String[] aliases;
+    final Set<String> keywords;
+    final Set<String> literals;
+    final Set<String> builtIns;
+    final String[] lineComments;
+    final String quotes;
+    final int flags;
+
+    Language(String name, String aliases, String keywords, String literals, String builtIns, String lineComments,
+             String quotes, int flags) {
+        this.name = name;
+        this.aliases = aliases.split(" ");
+        this.flags = flags;
+        this.keywords = words(keywords, has(Scanner.CASE_INSENSITIVE));
+        this.literals = words(literals, has(Scanner.CASE_INSENSITIVE));
+        this.builtIns = words(builtIns, has(Scanner.CASE_INSENSITIVE));
+        this.lineComments = lineComments.isEmpty() ? new String[0] : lineComments.split(" ");
+        this.quotes = quotes;
+    }
+
+    private static Set<String> words(String words, boolean lowerCase) {
+        if (words.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return new HashSet<>(Arrays.asList((lowerCase ? words.toLowerCase(Locale.ROOT) : words).split(" ")));
+    }
+
+    boolean has(int flag) {
+        return (this.flags & flag) != 0;
+    }
+
+    /**
+     * @param info the fence info string; its first word names the language
+     * @return the language, or null when the info string names none this class knows
+     */
+    static Language forInfo(String info) {
+        String name = firstWord(info);
+        return name.isEmpty() ? null : BY_ALIAS.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    static String firstWord(String info) {
+        if (info == null) {
+            return "";
+        }
+        String trimmed = info.trim();
+        int end = 0;
+        while (end < trimmed.length() && !Character.isWhitespace(trimmed.charAt(end)) && trimmed.charAt(end) != '{') {
+            end++;
+        }
+        return trimmed.substring(0, end);
+    }
+}
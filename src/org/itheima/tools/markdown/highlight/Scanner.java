@@ -0,0 +1,496 @@
+package org.itheima.tools.markdown.highlight;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A single left-to-right pass over one code block, writing it HTML-escaped
+ * with the tokens wrapped in {@code <span class="hljs-...">}. There is no
+ * grammar: comments, strings, numbers and words are told apart by their first
+ * characters, which is what the client-side highlighter's default themes
+ * show anyway. Unterminated comments and strings run to the end of the
+ * block or line, so any input renders.
+ */
+final class Scanner {
+
+    static final int BLOCK_COMMENTS = 1;
+    /** {@code @Name} is metadata. */
+    static final int ANNOTATIONS = 1 << 1;
+    static final int TRIPLE_QUOTES = 1 << 2;
+    /** A line starting with {@code #} is a directive. */
+    static final int PREPROCESSOR = 1 << 3;
+    /** {@code $name} and {@code ${...}} are variables. */
+    static final int VARIABLES = 1 << 4;
+    /** Line comments only start at the beginning of a word, as in {@code echo a#b}. */
+    static final int COMMENT_AT_WORD_START = 1 << 5;
+    static final int CASE_INSENSITIVE = 1 << 6;
+    /** A string followed by {@code :} is a key. */
+    static final int STRING_KEYS = 1 << 7;
+    /** Each line may start with a {@code key:} or {@code key=}. */
+    static final int LINE_KEYS = 1 << 8;
+
+    /** Keywords after which the next word is the name being declared. */
+    private static final Set<String> DECLARATIONS = new HashSet<>(Arrays.asList(
+            "class", "interface", "enum", "struct", "trait", "object", "def", "function", "func", "fun"));
+
+    private final Language language;
+    private final String code;
+    private final int length;
+    private final StringBuilder out;
+    private int pos;
+
+    private Scanner(Language language, String code, StringBuilder out) {
+        this.language = language;
+        this.code = code;
+        this.length = code.length();
+        this.out = out;
+    }
+
+    static void highlight(Language language, String code, StringBuilder out) {
+        Scanner scanner = new Scanner(language, code, out);
+        if (language == Language.XML) {
+            scanner.markup();
+        } else if (language == Language.CSS) {
+            scanner.stylesheet();
+        } else if (language == Language.PLAIN) {
+            escape(code, 0, code.length(), out);
+        } else {
+            scanner.code();
+        }
+    }
+
+    private void code() {
+        boolean lineStart = true;
+        boolean declaration = false;
+        while (this.pos < this.length) {
+            char c = this.code.charAt(this.pos);
+            if (c == '\n') {
+                this.out.append(c);
+                this.pos++;
+                lineStart = true;
+                continue;
+            }
+            if (c == ' ' || c == '\t' || c == '\r') {
+                this.out.append(c);
+                this.pos++;
+                continue;
+            }
+            boolean atLineStart = lineStart;
+            lineStart = false;
+
+            if (atLineStart && this.language.has(LINE_KEYS) && lineKey()) {
+                continue;
+            }
+            if (atLineStart && c == '#' && this.language.has(PREPROCESSOR)) {
+                span("meta", lineEnd());
+            } else if (this.language.has(BLOCK_COMMENTS) && startsWith("/*")) {
+                span("comment", after("*/", this.pos + 2));
+            } else if (isLineComment()) {
+                span("comment", lineEnd());
+            } else if (this.language.quotes.indexOf(c) >= 0) {
+                string(c);
+            } else if (isDigit(c) || c == '.' && isDigit(charAt(this.pos + 1)) && !isWordPart(charAt(this.pos - 1))) {
+                span("number", number(this.pos));
+            } else if (c == '@' && this.language.has(ANNOTATIONS) && Character.isJavaIdentifierStart(charAt(this.pos + 1))) {
+                int end = word(this.pos + 1);
+                while (charAt(end) == '.' && Character.isJavaIdentifierStart(charAt(end + 1))) {
+                    end = word(end + 1);
+                }
+                span("meta", end);
+            } else if (c == '$' && this.language.has(VARIABLES)) {
+                variable();
+            } else if (Character.isJavaIdentifierStart(c)) {
+                declaration = identifier(declaration);
+                continue;
+            } else {
+                escape(c);
+                this.pos++;
+            }
+            declaration = false;
+        }
+    }
+
+    /**
+     * Writes the word at the current position.
+     *
+     * @param declaration whether the word names what the previous keyword declares
+     * @return whether the following word is a declared name
+     */
+    private boolean identifier(boolean declaration) {
+        int end = word(this.pos);
+        String word = this.code.substring(this.pos, end);
+        String key = this.language.has(CASE_INSENSITIVE) ? word.toLowerCase(Locale.ROOT) : word;
+        if (declaration) {
+            span("title", end);
+        } else if (this.language.keywords.contains(key)) {
+            span("keyword", end);
+            return DECLARATIONS.contains(key);
+        } else if (this.language.literals.contains(key)) {
+            span("literal", end);
+        } else if (this.language.builtIns.contains(key)) {
+            span("built_in", end);
+        } else {
+            escape(this.code, this.pos, end, this.out);
+            this.pos = end;
+        }
+        return false;
+    }
+
+    private boolean isLineComment() {
+        for (String marker : this.language.lineComments) {
+            if (startsWith(marker) && (!this.language.has(COMMENT_AT_WORD_START) || this.pos == 0
+                    || Character.isWhitespace(this.code.charAt(this.pos - 1)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void string(char quote) {
+        int end;
+        String triple = new String(new char[]{quote, quote, quote});
+        if (this.language.has(TRIPLE_QUOTES) && startsWith(triple)) {
+            end = after(triple, this.pos + 3);
+        } else {
+            end = this.pos + 1;
+            while (end < this.length) {
+                char c = this.code.charAt(end);
+                if (c == '\\') {
+                    end += 2;
+                    continue;
+                }
+                if (c == quote) {
+                    end++;
+                    break;
+                }
+                if (c == '\n' && quote != '`') {
+                    break;
+                }
+                end++;
+            }
+            end = Math.min(end, this.length);
+        }
+        if (this.language.has(STRING_KEYS)) {
+            int next = end;
+            while (next < this.length && (this.code.charAt(next) == ' ' || this.code.charAt(next) == '\t')) {
+                next++;
+            }
+            if (charAt(next) == ':') {
+                span("attr", end);
+                return;
+            }
+        }
+        span("string", end);
+    }
+
+    private int number(int start) {
+        int end = start;
+        if (this.code.startsWith("0x", start) || this.code.startsWith("0X", start)) {
+            end += 2;
+        }
+        while (end < this.length) {
+            char c = this.code.charAt(end);
+            if ((c == 'e' || c == 'E') && (charAt(end + 1) == '+' || charAt(end + 1) == '-')
+                    && !this.code.startsWith("0x", start)) {
+                end += 2;
+            } else if (c == '.' ? isDigit(charAt(end + 1)) : Character.isLetterOrDigit(c) || c == '_') {
+                end++;
+            } else {
+                break;
+            }
+        }
+        return end;
+    }
+
+    private void variable() {
+        int end = this.pos + 1;
+        char c = charAt(end);
+        if (c == '{') {
+            int close = this.code.indexOf('}', end);
+            end = close < 0 || close > lineEnd() ? lineEnd() : close + 1;
+        } else if (Character.isJavaIdentifierStart(c)) {
+            end = word(end);
+        } else if (isDigit(c) || "#?@*$!-".indexOf(c) >= 0) {
+            end++;
+        }
+        if (end == this.pos + 1) {
+            escape('$');
+            this.pos++;
+        } else {
+            span("variable", end);
+        }
+    }
+
+    /**
+     * Writes the key of a {@code key: value} or {@code key=value} line, and
+     * {@code [section]} headers.
+     *
+     * @return false, writing nothing, when the line has no key
+     */
+    private boolean lineKey() {
+        boolean yaml = this.language == Language.YAML;
+        int lineEnd = lineEnd();
+        if (!yaml && this.code.charAt(this.pos) == '[') {
+            span("section", lineEnd);
+            return true;
+        }
+        int start = this.pos;
+        int written = this.out.length();
+        if (yaml && startsWith("- ")) {
+            this.out.append("- ");
+            this.pos += 2;
+        }
+        if (key(yaml, lineEnd)) {
+            return true;
+        }
+        this.pos = start;
+        this.out.setLength(written);
+        return false;
+    }
+
+    private boolean key(boolean yaml, int lineEnd) {
+        char first = charAt(this.pos);
+        if (this.language.lineComments.length > 0 && isLineComment() || first == ':' || first == '=') {
+            return false;
+        }
+        for (int i = this.pos; i < lineEnd; i++) {
+            char c = this.code.charAt(i);
+            boolean separator = yaml ? c == ':' && (i + 1 == lineEnd || Character.isWhitespace(this.code.charAt(i + 1)))
+                    : c == '=' || c == ':';
+            if (separator) {
+                int end = i;
+                while (end > this.pos && Character.isWhitespace(this.code.charAt(end - 1))) {
+                    end--;
+                }
+                span("attr", end);
+                return true;
+            }
+            if (yaml && (c == '"' || c == '\'' || c == '{' || c == '[')) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * XML and HTML: tags with their names, attributes and values, comments and
+     * declarations; text in between is left alone.
+     */
+    private void markup() {
+        while (this.pos < this.length) {
+            char c = this.code.charAt(this.pos);
+            if (startsWith("<!--")) {
+                span("comment", after("-->", this.pos + 4));
+            } else if (startsWith("<![CDATA[")) {
+                span("string", after("]]>", this.pos + 9));
+            } else if (startsWith("<!") || startsWith("<?")) {
+                span("meta", after(">", this.pos + 2));
+            } else if (c == '<' && (Character.isLetter(charAt(this.pos + 1)) || charAt(this.pos + 1) == '/')) {
+                tag();
+            } else {
+                escape(c);
+                this.pos++;
+            }
+        }
+    }
+
+    private void tag() {
+        this.out.append("<span class=\"hljs-tag\">&lt;");
+        this.pos++;
+        if (charAt(this.pos) == '/') {
+            this.out.append('/');
+            this.pos++;
+        }
+        span("name", until(this.pos, " \t\r\n/>"));
+        boolean value = false;
+        while (this.pos < this.length) {
+            char c = this.code.charAt(this.pos);
+            if (c == '>') {
+                this.out.append("&gt;");
+                this.pos++;
+                break;
+            }
+            if (c == '<') {
+                break;
+            }
+            if (Character.isWhitespace(c) || c == '/' || c == '=') {
+                value |= c == '=';
+                escape(c);
+                this.pos++;
+            } else if (c == '"' || c == '\'') {
+                int close = this.code.indexOf(c, this.pos + 1);
+                span("string", close < 0 ? this.length : close + 1);
+                value = false;
+            } else {
+                span(value ? "string" : "attr", until(this.pos, value ? " \t\r\n>" : " \t\r\n=/>"));
+                value = false;
+            }
+        }
+        this.out.append("</span>");
+    }
+
+    /**
+     * CSS: selectors outside braces, property names and numbers inside them.
+     */
+    private void stylesheet() {
+        int depth = 0;
+        while (this.pos < this.length) {
+            char c = this.code.charAt(this.pos);
+            char next = charAt(this.pos + 1);
+            if (startsWith("/*")) {
+                span("comment", after("*/", this.pos + 2));
+            } else if (startsWith("//") && charAt(this.pos - 1) != ':') {
+                span("comment", lineEnd());
+            } else if (c == '"' || c == '\'') {
+                string(c);
+            } else if (c == '@' && isCssName(next)) {
+                span("keyword", cssName(this.pos + 1));
+            } else if (c == '{' || c == '}') {
+                depth = Math.max(0, depth + (c == '{' ? 1 : -1));
+                escape(c);
+                this.pos++;
+            } else if (depth == 0) {
+                if ((c == '.' || c == '#') && isCssName(next)) {
+                    span(c == '.' ? "selector-class" : "selector-id", cssName(this.pos + 1));
+                } else if (c == ':' && (isCssName(next) || next == ':')) {
+                    span("selector-pseudo", cssName(next == ':' ? this.pos + 2 : this.pos + 1));
+                } else if (c == '[') {
+                    span("selector-attr", after("]", this.pos + 1));
+                } else if (isCssName(c) && !isDigit(c)) {
+                    span("selector-tag", cssName(this.pos));
+                } else {
+                    escape(c);
+                    this.pos++;
+                }
+            } else if (isDigit(c) || (c == '-' || c == '.') && isDigit(next) || c == '#' && isHexDigit(next)) {
+                span("number", cssNumber(this.pos + 1));
+            } else if (c == '!' && Character.isLetter(next)) {
+                span("keyword", cssName(this.pos + 1));
+            } else if (isCssName(c)) {
+                int end = cssName(this.pos);
+                int colon = end;
+                while (colon < this.length && (this.code.charAt(colon) == ' ' || this.code.charAt(colon) == '\t')) {
+                    colon++;
+                }
+                if (charAt(colon) == ':') {
+                    span("attribute", end);
+                } else {
+                    escape(this.code, this.pos, end, this.out);
+                    this.pos = end;
+                }
+            } else {
+                escape(c);
+                this.pos++;
+            }
+        }
+    }
+
+    private int cssNumber(int end) {
+        while (end < this.length && (isCssName(this.code.charAt(end)) || this.code.charAt(end) == '.'
+                || this.code.charAt(end) == '%')) {
+            end++;
+        }
+        return end;
+    }
+
+    private int cssName(int end) {
+        while (end < this.length && isCssName(this.code.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isCssName(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '_';
+    }
+
+    /** Writes the text up to {@code end} in a span of the given class and moves past it. */
+    private void span(String type, int end) {
+        this.out.append("<span class=\"hljs-").append(type).append("\">");
+        escape(this.code, this.pos, end, this.out);
+        this.out.append("</span>");
+        this.pos = end;
+    }
+
+    private boolean startsWith(String prefix) {
+        return this.code.startsWith(prefix, this.pos);
+    }
+
+    /** The index after the next {@code terminator}, or the end of the block. */
+    private int after(String terminator, int from) {
+        int index = this.code.indexOf(terminator, Math.min(from, this.length));
+        return index < 0 ? this.length : index + terminator.length();
+    }
+
+    private int until(int from, String stops) {
+        int end = from;
+        while (end < this.length && stops.indexOf(this.code.charAt(end)) < 0) {
+            end++;
+        }
+        return end;
+    }
+
+    private int lineEnd() {
+        int end = this.code.indexOf('\n', this.pos);
+        return end < 0 ? this.length : end;
+    }
+
+    private int word(int from) {
+        int end = from;
+        while (end < this.length && Character.isJavaIdentifierPart(this.code.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    /** The char at {@code index}, or 0 outside the block. */
+    private char charAt(int index) {
+        return index >= 0 && index < this.length ? this.code.charAt(index) : 0;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F';
+    }
+
+    private static boolean isWordPart(char c) {
+        return c != 0 && Character.isJavaIdentifierPart(c);
+    }
+
+    private void escape(char c) {
+        switch (c) {
+            case '&':
+                this.out.append("&amp;");
+                break;
+            case '<':
+                this.out.append("&lt;");
+                break;
+            case '>':
+                this.out.append("&gt;");
+                break;
+            case '"':
+                this.out.append("&quot;");
+                break;
+            default:
+                this.out.append(c);
+        }
+    }
+
+    static void escape(String text, int start, int end, StringBuilder out) {
+        int run = start;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            String entity = c == '&' ? "&amp;" : c == '<' ? "&lt;" : c == '>' ? "&gt;" : c == '"' ? "&quot;" : null;
+            if (entity != null) {
+                out.append(text, run, i).append(entity);
+                run = i + 1;
+            }
+        }
+        out.append(text, run, end);
+    }
+}
@@ -0,0 +1,88 @@
+package org.itheima.tools.markdown.impl;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.itheima.tools.markdown.Engine;
+import org.itheima.tools.markdown.Markdown;
+import org.itheima.tools.markdown.RenderContext;
+
+/**
+ * Routes each document to the fastest engine that renders every {@link Feature}
+ * the document uses, falling back to pegdown, which supports the most.
+ * <p>
+ * Engines are tried from fastest to slowest: txtmark, commonmark, flexmark,
+ * pegdown. Output follows the chosen engine, so heading anchors, hard wraps
+ * and typographic quotes, which only pegdown adds, depend on the route.
+ * The delegates are created on first use and shared; like them, this class
+ * is thread-safe.
+ */
+public class AdaptiveMarkdown
+        implements Markdown {
+
+    private static final Engine[] ORDER = {Engine.TXTMARK, Engine.COMMONMARK, Engine.FLEXMARK, Engine.PEGDOWN};
+
+    private static final EnumSet<Feature> TXTMARK = EnumSet.of(Feature.RAW_HTML);
+    private static final EnumSet<Feature> COMMONMARK = EnumSet.of(Feature.FENCED_CODE, Feature.RAW_HTML);
+    private static final EnumSet<Feature> FLEXMARK = EnumSet.of(Feature.FENCED_CODE);
+
+    private final AtomicReferenceArray<Markdown> delegates = new AtomicReferenceArray<>(ORDER.length);
+
+    public String parse(String text) {
+        return delegate(route(text)).parse(text);
+    }
+
+    public String parse(String text, RenderContext context) {
+        return delegate(route(text)).parse(text, context);
+    }
+
+    public void render(CharSequence text, Appendable out, RenderContext context) throws IOException {
+        delegate(route(text)).render(text, out, context);
+    }
+
+    /**
+     * @return the engine {@link #parse(String)} would use for {@code text}
+     */
+    public Engine route(CharSequence text) {
+        EnumSet<Feature> features = Feature.scan(text);
+        for (Engine engine : ORDER) {
+            if (supported(engine).containsAll(features)) {
+                return engine;
+            }
+        }
+        return Engine.PEGDOWN;
+    }
+
+    public Markdown delegate(Engine engine) {
+        int i = indexOf(engine);
+        Markdown delegate = this.delegates.get(i);
+        if (delegate == null) {
+            this.delegates.compareAndSet(i, null, engine.create());
+            delegate = this.delegates.get(i);
+        }
+        return delegate;
+    }
+
+    private static EnumSet<Feature> supported(Engine engine) {
+        switch (engine) {
+            case TXTMARK:
+                return TXTMARK;
+            case COMMONMARK:
+                return COMMONMARK;
+            case FLEXMARK:
+                return FLEXMARK;
+            default:
+                return EnumSet.complementOf(EnumSet.of(Feature.FOOTNOTES, Feature.TOC));
+        }
+    }
+
+    private static int indexOf(Engine engine) {
+        for (int i = 0; i < ORDER.length; i++) {
+            if (ORDER[i] == engine) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not routable: " + engine);
+    }
+}
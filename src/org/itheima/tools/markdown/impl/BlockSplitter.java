@@ -0,0 +1,510 @@
+package org.itheima.tools.markdown.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Finds where a document can be cut into pieces that render, one by one, to
+ * exactly the HTML the whole document renders to.
+ * <p>
+ * A piece starts only at a line that follows a blank line, starts in the
+ * first column with a letter or {@code #}, and lies outside fenced code and
+ * HTML blocks: no list, block quote, table, indented code or HTML carries
+ * over such a line in any of the engines. Comments and {@code pre},
+ * {@code script}, {@code style} and {@code textarea} elements hold raw text
+ * up to their end; a line in them starting with a block-level tag keeps the
+ * document whole, as engines differ on which of them are raw. Link reference
+ * definitions, which apply to the whole document, are collected so that every
+ * piece can carry them. Documents using anything else with document-wide
+ * effect (footnotes, abbreviations, a {@code [TOC]}, definition lists,
+ * headings whose ids could collide, labels defined twice, or definitions in
+ * odd places) are not split.
+ */
+class BlockSplitter {
+
+    private static final EnumSet<Feature> DOCUMENT_WIDE = EnumSet.of(Feature.FOOTNOTES, Feature.ABBREVIATIONS,
+            Feature.TOC, Feature.DEFINITIONS);
+
+    /** Tags opening an HTML block in pegdown or CommonMark. */
+    private static final Set<String> BLOCK_ELEMENTS = new HashSet<>(Arrays.asList("address", "article", "aside",
+            "blockquote", "body", "center", "details", "dialog", "dir", "div", "dd", "dl", "dt", "fieldset",
+            "figcaption", "figure", "footer", "form", "frameset", "h1", "h2", "h3", "h4", "h5", "h6", "head",
+            "header", "hr", "html", "iframe", "isindex", "li", "main", "menu", "nav", "noframes", "noscript", "ol",
+            "p", "pre", "script", "section", "style", "summary", "table", "tbody", "td", "textarea", "tfoot", "th",
+            "thead", "tr", "ul"));
+
+    /** Elements whose content is raw text up to their end tag, as for a comment. */
+    private static final Set<String> RAW_ELEMENTS = new HashSet<>(Arrays.asList("pre", "script", "style",
+            "textarea"));
+
+    private static final Set<String> VOID_ELEMENTS = new HashSet<>(Arrays.asList("area", "base", "br",
+            "col", "embed", "hr", "img", "input", "link", "meta", "param", "source", "track", "wbr"));
+
+    private final CharSequence text;
+    private final int chunkChars;
+
+    private final List<Integer> starts = new ArrayList<>();
+    private final StringBuilder definitions = new StringBuilder();
+    private final Set<String> labels = new HashSet<>();
+    private final Set<String> headings = new HashSet<>();
+
+    // fenced code
+    private char fenceChar;
+    private int fenceLength;
+    private int fenceColumn;
+    // HTML blocks
+    private int htmlDepth;
+    private boolean inComment;
+    private boolean inTag;
+    private char tagQuote;
+    /** Start tag just read, until its {@code >}. */
+    private String openedElement;
+    /** The raw text element open, its content not scanned for tags. */
+    private String rawElement;
+
+    private BlockSplitter(CharSequence text, int chunkChars) {
+        this.text = text;
+        this.chunkChars = chunkChars;
+    }
+
+    /**
+     * @param chunkChars the length a piece grows to before it is cut at the next safe line
+     * @return the split, or null if the document has to be rendered whole
+     */
+    static Split split(CharSequence text, int chunkChars) {
+        EnumSet<Feature> features = Feature.scan(text);
+        features.retainAll(DOCUMENT_WIDE);
+        if (!features.isEmpty()) {
+            return null;
+        }
+        BlockSplitter splitter = new BlockSplitter(text, chunkChars);
+        if (!splitter.scan() || splitter.starts.size() < 2) {
+            return null;
+        }
+        return new Split(text, splitter.starts, splitter.definitions.toString());
+    }
+
+    /**
+     * @return false if the document must not be split
+     */
+    private boolean scan() {
+        int length = this.text.length();
+        int lineStart = 0;
+        int chunkStart = 0;
+        boolean previousBlank = true;
+        boolean previousDefinition = false;
+        String previousLine = null;
+        this.starts.add(0);
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && this.text.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int end = lineEnd > lineStart && this.text.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            int indent = lineStart;
+            while (indent < end && (this.text.charAt(indent) == ' ' || this.text.charAt(indent) == '\t')) {
+                indent++;
+            }
+            boolean blank = indent == end;
+
+            if (this.fenceLength > 0) {
+                if (closesFence(indent, end)) {
+                    this.fenceLength = 0;
+                }
+                previousBlank = blank;
+                previousDefinition = false;
+                previousLine = null;
+                lineStart = lineEnd + 1;
+                continue;
+            }
+
+            boolean inHtml = this.htmlDepth > 0 || this.inComment || this.inTag || this.rawElement != null;
+            if (!inHtml && previousBlank && indent == lineStart && lineStart - chunkStart >= this.chunkChars
+                    && startsPiece(lineStart, end)) {
+                this.starts.add(lineStart);
+                chunkStart = lineStart;
+            }
+
+            if (!blank) {
+                if (indent - lineStart < 4 && startsHtmlBlock(indent, end) && (this.inComment
+                        || this.rawElement != null && !closesRawElement(indent, end))) {
+                    // engines disagree on which elements hold raw text, so such a line may open a block in some
+                    return false;
+                }
+                if (inHtml || (indent - lineStart < 4 && startsHtmlBlock(indent, end))) {
+                    scanHtml(indent, end);
+                } else if (!scanLine(lineStart, indent, end, previousBlank, previousDefinition, previousLine)) {
+                    return false;
+                }
+                previousDefinition = isDefinition(indent, end) && indent - lineStart < 4;
+                previousLine = this.text.subSequence(indent, end).toString();
+            } else {
+                previousDefinition = false;
+                previousLine = null;
+            }
+            previousBlank = blank;
+            lineStart = lineEnd + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Lines a piece may start with: paragraphs and headings, not table rows.
+     */
+    private boolean startsPiece(int start, int end) {
+        char first = this.text.charAt(start);
+        if (!Character.isLetter(first) && first != '#') {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (this.text.charAt(i) == '|') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Opens fences, collects reference definitions and heading ids.
+     *
+     * @return false if the line rules out splitting
+     */
+    private boolean scanLine(int start, int indent, int end, boolean previousBlank, boolean previousDefinition,
+                             String previousLine) {
+        // fences may follow block quote and list markers
+        int content = skipContainerMarkers(indent, end);
+        char c = this.text.charAt(content);
+        if (c == '`' || c == '~') {
+            int run = content;
+            while (run < end && this.text.charAt(run) == c) {
+                run++;
+            }
+            // four spaces without a container make it indented code
+            if (run - content >= 3 && (content != indent || indent - start < 4)) {
+                this.fenceChar = c;
+                this.fenceLength = run - content;
+                this.fenceColumn = content - start;
+                return true;
+            }
+        }
+
+        if (isDefinition(content, end)) {
+            if (content != indent || indent - start >= 4 || !(previousBlank || previousDefinition)) {
+                // inside a container, indented or interrupting a paragraph: leave it to the engine
+                return false;
+            }
+            String label = normalizeLabel(content, end);
+            if (!this.labels.add(label)) {
+                return false;
+            }
+            this.definitions.append("\n\n").append(this.text, start, end);
+            return true;
+        }
+
+        if (c == '#') {
+            return addHeading(this.text.subSequence(content, end).toString().replaceAll("^#+|#+\\s*$", ""));
+        }
+        if (previousLine != null && !previousBlank && isSetextUnderline(content, end)) {
+            return addHeading(previousLine);
+        }
+        return true;
+    }
+
+    private boolean closesFence(int indent, int end) {
+        int content = indent;
+        while (content < end && this.text.charAt(content) == '>') {
+            content++;
+            while (content < end && this.text.charAt(content) == ' ') {
+                content++;
+            }
+        }
+        int run = content;
+        while (run < end && this.text.charAt(run) == this.fenceChar) {
+            run++;
+        }
+        if (run - content < this.fenceLength) {
+            return false;
+        }
+        for (int i = run; i < end; i++) {
+            if (this.text.charAt(i) != ' ' && this.text.charAt(i) != '\t') {
+                return false;
+            }
+        }
+        // an indented line of fence characters is code, unless within the opening fence's reach
+        return columnOf(content) <= this.fenceColumn + 3;
+    }
+
+    private int columnOf(int index) {
+        int lineStart = index;
+        while (lineStart > 0 && this.text.charAt(lineStart - 1) != '\n') {
+            lineStart--;
+        }
+        return index - lineStart;
+    }
+
+    /**
+     * A comment or block-level tag; other markup at the start of a line opens a paragraph or ends at the next
+     * blank line.
+     */
+    private boolean startsHtmlBlock(int start, int end) {
+        if (this.text.charAt(start) != '<') {
+            return false;
+        }
+        if (startsWith(start, end, "<!--")) {
+            return true;
+        }
+        int nameStart = start + 1 < end && this.text.charAt(start + 1) == '/' ? start + 2 : start + 1;
+        int nameEnd = nameStart;
+        while (nameEnd < end && Character.isLetterOrDigit(this.text.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        if (nameEnd == nameStart || (nameEnd < end && " \t>/".indexOf(this.text.charAt(nameEnd)) < 0)) {
+            return false;
+        }
+        return BLOCK_ELEMENTS.contains(this.text.subSequence(nameStart, nameEnd).toString().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Follows tags and comments through an HTML block; unbalanced markup keeps the rest of the document whole.
+     * Comments and raw text elements are skipped to their end, whatever markup they hold.
+     */
+    private void scanHtml(int start, int end) {
+        int i = start;
+        while (i < end) {
+            char c = this.text.charAt(i);
+            if (this.inComment) {
+                if (c == '-' && startsWith(i, end, "-->")) {
+                    this.inComment = false;
+                    i += 3;
+                    continue;
+                }
+            } else if (this.inTag) {
+                i = tagEnd(i, end);
+                if (i < end) {
+                    this.inTag = false;
+                    enterRawElement();
+                }
+            } else if (this.rawElement != null) {
+                if (c == '<' && closesRawElement(i, end)) {
+                    this.rawElement = null;
+                    continue;
+                }
+            } else if (c == '<') {
+                if (startsWith(i, end, "<!--")) {
+                    this.inComment = true;
+                    i += 4;
+                    continue;
+                }
+                boolean closing = i + 1 < end && this.text.charAt(i + 1) == '/';
+                int nameStart = closing ? i + 2 : i + 1;
+                int nameEnd = nameStart;
+                while (nameEnd < end && (Character.isLetterOrDigit(this.text.charAt(nameEnd)) || this.text.charAt(nameEnd) == '-')) {
+                    nameEnd++;
+                }
+                boolean autolink = nameEnd < end && (this.text.charAt(nameEnd) == ':' || this.text.charAt(nameEnd) == '@');
+                if (nameEnd > nameStart && Character.isLetter(this.text.charAt(nameStart)) && !autolink) {
+                    String name = this.text.subSequence(nameStart, nameEnd).toString().toLowerCase(Locale.ROOT);
+                    int close = tagEnd(nameEnd, end);
+                    boolean selfClosing = close < end && close > nameEnd && this.text.charAt(close - 1) == '/';
+                    if (closing) {
+                        this.htmlDepth = Math.max(0, this.htmlDepth - 1);
+                    } else if (!selfClosing && !VOID_ELEMENTS.contains(name)) {
+                        this.htmlDepth++;
+                        this.openedElement = name;
+                    }
+                    if (close == end) {
+                        this.inTag = true;
+                    } else {
+                        enterRawElement();
+                    }
+                    i = close + 1;
+                    continue;
+                }
+            }
+            i++;
+        }
+    }
+
+    /**
+     * The {@code >} ending the tag, skipping quoted attribute values, or {@code end} if the tag goes on.
+     */
+    private int tagEnd(int from, int end) {
+        for (int i = from; i < end; i++) {
+            char c = this.text.charAt(i);
+            if (this.tagQuote != 0) {
+                if (c == this.tagQuote) {
+                    this.tagQuote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                this.tagQuote = c;
+            } else if (c == '>') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * After a start tag: skips the content of a raw text element it opened.
+     */
+    private void enterRawElement() {
+        if (this.openedElement != null && RAW_ELEMENTS.contains(this.openedElement)) {
+            this.rawElement = this.openedElement;
+        }
+        this.openedElement = null;
+    }
+
+    private boolean closesRawElement(int i, int end) {
+        int nameEnd = i + 2 + this.rawElement.length();
+        if (nameEnd > end || this.text.charAt(i + 1) != '/'
+                || !this.text.subSequence(i + 2, nameEnd).toString().equalsIgnoreCase(this.rawElement)) {
+            return false;
+        }
+        return nameEnd == end || !Character.isLetterOrDigit(this.text.charAt(nameEnd));
+    }
+
+    private int skipContainerMarkers(int indent, int end) {
+        int i = indent;
+        while (i < end) {
+            char c = this.text.charAt(i);
+            int next = i;
+            if (c == '>') {
+                next = i + 1;
+            } else if ((c == '-' || c == '*' || c == '+') && i + 1 < end && this.text.charAt(i + 1) == ' ') {
+                next = i + 2;
+            } else if (Character.isDigit(c)) {
+                int digits = i;
+                while (digits < end && Character.isDigit(this.text.charAt(digits))) {
+                    digits++;
+                }
+                if (digits + 1 < end && (this.text.charAt(digits) == '.' || this.text.charAt(digits) == ')')
+                        && this.text.charAt(digits + 1) == ' ') {
+                    next = digits + 2;
+                }
+            }
+            if (next == i) {
+                return i;
+            }
+            i = next;
+            while (i < end && (this.text.charAt(i) == ' ' || this.text.charAt(i) == '\t')) {
+                i++;
+            }
+        }
+        return Math.min(i, end - 1);
+    }
+
+    /**
+     * {@code [label]: destination}, not a footnote.
+     */
+    private boolean isDefinition(int start, int end) {
+        if (start >= end || this.text.charAt(start) != '[' || (start + 1 < end && this.text.charAt(start + 1) == '^')) {
+            return false;
+        }
+        for (int i = start + 1; i < end; i++) {
+            char c = this.text.charAt(i);
+            if (c == ']') {
+                return i > start + 1 && i + 1 < end && this.text.charAt(i + 1) == ':';
+            } else if (c == '[') {
+                return false;
+            } else if (c == '\\') {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    private String normalizeLabel(int start, int end) {
+        int close = start + 1;
+        while (this.text.charAt(close) != ']') {
+            close += this.text.charAt(close) == '\\' ? 2 : 1;
+        }
+        return this.text.subSequence(start + 1, close).toString().trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private boolean isSetextUnderline(int start, int end) {
+        char c = this.text.charAt(start);
+        if (c != '=' && c != '-') {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char d = this.text.charAt(i);
+            if (d != c && d != ' ' && d != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Engines number repeated heading ids per document, so headings whose ids could collide keep it whole.
+     *
+     * @return false on a possible collision
+     */
+    private boolean addHeading(String heading) {
+        StringBuilder id = new StringBuilder(heading.length());
+        for (int i = 0; i < heading.length(); i++) {
+            char c = heading.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                id.append(Character.toLowerCase(c));
+            }
+        }
+        return this.headings.add(id.toString());
+    }
+
+    private boolean startsWith(int start, int end, String prefix) {
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (this.text.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The pieces of a document and the reference definitions each of them needs.
+     */
+    static final class Split {
+        private final CharSequence text;
+        private final List<Integer> starts;
+        private final String definitions;
+
+        Split(CharSequence text, List<Integer> starts, String definitions) {
+            this.text = text;
+            this.starts = starts;
+            this.definitions = definitions;
+        }
+
+        int size() {
+            return this.starts.size();
+        }
+
+        /**
+         * Piece {@code i}, followed by every reference definition of the document.
+         */
+        String piece(int i) {
+            int start = this.starts.get(i);
+            int end = i + 1 < this.starts.size() ? this.starts.get(i + 1) : this.text.length();
+            StringBuilder piece = new StringBuilder(end - start + this.definitions.length() + 2);
+            piece.append(this.text, start, end);
+            if (!this.definitions.isEmpty()) {
+                if (piece.length() > 0 && piece.charAt(piece.length() - 1) != '\n') {
+                    piece.append('\n');
+                }
+                piece.append(this.definitions).append('\n');
+            }
+            return piece.toString();
+        }
+
+        int definitionsLength() {
+            return this.definitions.length();
+        }
+    }
+}
@@ -1,37 +1,128 @@
 package org.itheima.tools.markdown.impl;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
+import org.commonmark.node.FencedCodeBlock;
+import org.commonmark.node.HtmlBlock;
+import org.commonmark.node.HtmlInline;
+import org.commonmark.node.Image;
 import org.commonmark.node.IndentedCodeBlock;
 import org.commonmark.node.Node;
 import org.commonmark.parser.Parser;
 import org.commonmark.renderer.NodeRenderer;
+import org.commonmark.renderer.html.AttributeProvider;
+import org.commonmark.renderer.html.AttributeProviderContext;
+import org.commonmark.renderer.html.AttributeProviderFactory;
 import org.commonmark.renderer.html.HtmlNodeRendererContext;
 import org.commonmark.renderer.html.HtmlNodeRendererFactory;
 import org.commonmark.renderer.html.HtmlRenderer;
 import org.commonmark.renderer.html.HtmlWriter;
+import org.itheima.tools.markdown.HtmlImages;
+import org.itheima.tools.markdown.ImageResolver;
 import org.itheima.tools.markdown.Markdown;
+import org.itheima.tools.markdown.RenderContext;
+import org.itheima.tools.markdown.RenderTracer;
+import org.itheima.tools.markdown.highlight.CodeHighlighter;
 
 
+/**
+ * Commonmark's {@link Parser} and {@link HtmlRenderer} are immutable once built,
+ * so one pair is shared by all threads. The per-document image resolver and
+ * highlighter reach the renderer's factories through a thread-local set around
+ * each render.
+ */
 public class CommonmarkImpl
         implements Markdown {
-    public String parse(String text) {
-        Parser parser = Parser.builder().build();
+    private static final String ENGINE = "commonmark";
+
+    private static final ThreadLocal<RenderContext> CONTEXT = new ThreadLocal<>();
+
+    private final Parser parser;
+    private final HtmlRenderer renderer;
+    /** Same as {@link #renderer}, with all code blocks highlighted on the server. */
+    private final HtmlRenderer highlightingRenderer;
+    private final RenderTracer tracer;
+
+    public CommonmarkImpl() {
+        this(RenderTracer.NONE);
+    }
 
-        HtmlRenderer renderer = HtmlRenderer.builder()
+    public CommonmarkImpl(RenderTracer tracer) {
+        this.tracer = tracer;
+        this.parser = Parser.builder().build();
+        this.renderer = rendererBuilder()
                 .nodeRendererFactory(new HtmlNodeRendererFactory() {
                     public NodeRenderer create(HtmlNodeRendererContext context) {
                         return new CommonmarkImpl.IndentedCodeBlockNodeRenderer(context);
                     }
                 }).build();
+        this.highlightingRenderer = rendererBuilder()
+                .nodeRendererFactory(new HtmlNodeRendererFactory() {
+                    public NodeRenderer create(HtmlNodeRendererContext context) {
+                        return new CommonmarkImpl.HighlightedCodeBlockNodeRenderer(context,
+                                current().getCodeHighlighter());
+                    }
+                }).build();
+    }
 
-        Node node = parser.parse(text);
+    private static HtmlRenderer.Builder rendererBuilder() {
+        return HtmlRenderer.builder()
+                .nodeRendererFactory(new HtmlNodeRendererFactory() {
+                    public NodeRenderer create(HtmlNodeRendererContext context) {
+                        return new CommonmarkImpl.HtmlNodeRenderer(context, current().getImageResolver());
+                    }
+                })
+                .attributeProviderFactory(new AttributeProviderFactory() {
+                    public AttributeProvider create(AttributeProviderContext context) {
+                        return new CommonmarkImpl.ImageAttributeProvider(current().getImageResolver());
+                    }
+                });
+    }
+
+    public String parse(String text) {
+        return parse(text, RenderContext.DEFAULT);
+    }
 
-        return renderer.render(node);
+    public String parse(String text, RenderContext context) {
+        StringBuilder html = new StringBuilder(text.length() + (text.length() >> 1));
+        render(text, html, context);
+        return html.toString();
     }
 
-    private class IndentedCodeBlockNodeRenderer
+    /**
+     * Commonmark's parser takes a String; its renderer writes to the Appendable directly.
+     */
+    public void render(CharSequence text, Appendable out, RenderContext context) {
+        Node node = this.parser.parse(text.toString());
+        if (this.tracer.isEnabled()) {
+            trace(node, 0);
+        }
+
+        CONTEXT.set(context);
+        try {
+            (context.getCodeHighlighter() != null ? this.highlightingRenderer : this.renderer).render(node, out);
+        } finally {
+            CONTEXT.remove();
+        }
+    }
+
+    private static RenderContext current() {
+        RenderContext context = CONTEXT.get();
+        return context != null ? context : RenderContext.DEFAULT;
+    }
+
+    private void trace(Node node, int depth) {
+        this.tracer.node(ENGINE, node.getClass().getSimpleName(), depth, -1, -1);
+        for (Node child = node.getFirstChild(); child != null; child = child.getNext()) {
+            trace(child, depth + 1);
+        }
+    }
+
+    private static class IndentedCodeBlockNodeRenderer
             implements NodeRenderer {
         private final HtmlWriter html;
 
@@ -50,12 +141,95 @@ public class CommonmarkImpl
             this.html.line();
             this.html.tag("pre");
             String literal = codeBlock.getLiteral();
-
-            System.out.println(literal);
-
             this.html.text(literal);
             this.html.tag("/pre");
             this.html.line();
         }
     }
+
+    private static class HighlightedCodeBlockNodeRenderer
+            implements NodeRenderer {
+        private final HtmlWriter html;
+        private final CodeHighlighter highlighter;
+
+        HighlightedCodeBlockNodeRenderer(HtmlNodeRendererContext context, CodeHighlighter highlighter) {
+            this.html = context.getWriter();
+            this.highlighter = highlighter;
+        }
+
+
+        public Set<Class<? extends Node>> getNodeTypes() {
+            return new HashSet<Class<? extends Node>>(Arrays.asList(FencedCodeBlock.class, IndentedCodeBlock.class));
+        }
+
+
+        public void render(Node node) {
+            String html = node instanceof FencedCodeBlock
+                    ? this.highlighter.highlight(((FencedCodeBlock) node).getInfo(), ((FencedCodeBlock) node).getLiteral())
+                    : this.highlighter.highlight(null, ((IndentedCodeBlock) node).getLiteral());
+            this.html.line();
+            this.html.raw(html);
+            this.html.line();
+        }
+    }
+
+    private static class ImageAttributeProvider
+            implements AttributeProvider {
+        private final ImageResolver images;
+
+        ImageAttributeProvider(ImageResolver images) {
+            this.images = images;
+        }
+
+
+        public void setAttributes(Node node, String tagName, Map<String, String> attributes) {
+            if (node instanceof Image && this.images != ImageResolver.NONE) {
+                attributes.put("src", this.images.resolve(((Image) node).getDestination()));
+            }
+        }
+    }
+
+    /**
+     * Same output as the core renderer, with {@code <img>} sources in raw HTML resolved.
+     */
+    private static class HtmlNodeRenderer
+            implements NodeRenderer {
+        private final HtmlNodeRendererContext context;
+        private final HtmlWriter html;
+        private final ImageResolver images;
+
+        HtmlNodeRenderer(HtmlNodeRendererContext context, ImageResolver images) {
+            this.context = context;
+            this.html = context.getWriter();
+            this.images = images;
+        }
+
+
+        public Set<Class<? extends Node>> getNodeTypes() {
+            return new HashSet<Class<? extends Node>>(Arrays.asList(HtmlBlock.class, HtmlInline.class));
+        }
+
+
+        public void render(Node node) {
+            boolean block = node instanceof HtmlBlock;
+            String literal = block ? ((HtmlBlock) node).getLiteral() : ((HtmlInline) node).getLiteral();
+            if (block) {
+                this.html.line();
+            }
+            if (this.context.shouldEscapeHtml()) {
+                if (block) {
+                    this.html.tag("p", this.context.extendAttributes(node, "p", Collections.<String, String>emptyMap()));
+                }
+                this.html.text(literal);
+                if (block) {
+                    this.html.tag("/p");
+                }
+            } else {
+                this.html.raw(HtmlImages.rewrite(literal, this.images));
+            }
+            if (block) {
+                this.html.line();
+            }
+        }
+    }
 }
@@ -0,0 +1,127 @@
+package org.itheima.tools.markdown.impl;
+
+import java.util.EnumSet;
+
+/**
+ * Markdown syntax beyond the common core that not every engine renders.
+ */
+public enum Feature {
+    TABLES,
+    FENCED_CODE,
+    FOOTNOTES,
+    TOC,
+    STRIKETHROUGH,
+    AUTOLINKS,
+    DEFINITIONS,
+    ABBREVIATIONS,
+    WIKI_LINKS,
+    RAW_HTML;
+
+    /**
+     * Single pass over {@code text} collecting the features it appears to use.
+     * Errs on the side of reporting a feature, which at worst routes a document
+     * to a slower engine.
+     */
+    public static EnumSet<Feature> scan(CharSequence text) {
+        EnumSet<Feature> found = EnumSet.noneOf(Feature.class);
+        int length = text.length();
+        int lineStart = 0;
+        boolean previousBlank = true;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && text.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            boolean blank = scanLine(text, lineStart, lineEnd, previousBlank, found);
+            previousBlank = blank;
+            lineStart = lineEnd + 1;
+        }
+        return found;
+    }
+
+    private static boolean scanLine(CharSequence text, int start, int end, boolean previousBlank, EnumSet<Feature> found) {
+        int indent = start;
+        while (indent < end && text.charAt(indent) == ' ') {
+            indent++;
+        }
+        if (indent == end || (indent == end - 1 && text.charAt(indent) == '\r')) {
+            return true;
+        }
+        char first = text.charAt(indent);
+        if (indent - start < 4) {
+            if (startsWith(text, indent, end, "```") || startsWith(text, indent, end, "~~~")) {
+                found.add(FENCED_CODE);
+            } else if (startsWith(text, indent, end, "*[")) {
+                found.add(ABBREVIATIONS);
+            } else if (first == ':' && !previousBlank && indent + 1 < end && (text.charAt(indent + 1) == ' ' || text.charAt(indent + 1) == '\t')) {
+                found.add(DEFINITIONS);
+            } else if (startsWith(text, indent, end, "[TOC]") || startsWith(text, indent, end, "[toc]")) {
+                found.add(TOC);
+            }
+        }
+        if (isTableSeparator(text, indent, end)) {
+            found.add(TABLES);
+        }
+
+        for (int i = indent; i < end; i++) {
+            char c = text.charAt(i);
+            char next = i + 1 < end ? text.charAt(i + 1) : 0;
+            if (c == '[' && next == '^') {
+                found.add(FOOTNOTES);
+            } else if (c == '[' && next == '[') {
+                found.add(WIKI_LINKS);
+            } else if (c == '~' && next == '~') {
+                found.add(STRIKETHROUGH);
+            } else if (c == '<' && (Character.isLetter(next) || next == '/' || next == '!')) {
+                found.add(RAW_HTML);
+            } else if ((c == 'h' || c == 'f' || c == 'w') && isBareUrl(text, i, end)) {
+                found.add(AUTOLINKS);
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTableSeparator(CharSequence text, int start, int end) {
+        boolean pipe = false;
+        boolean dash = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '|') {
+                pipe = true;
+            } else if (c == '-') {
+                dash = true;
+            } else if (c != ':' && c != ' ' && c != '\t' && c != '\r') {
+                return false;
+            }
+        }
+        return pipe && dash;
+    }
+
+    private static boolean isBareUrl(CharSequence text, int i, int end) {
+        if (!startsWith(text, i, end, "http://") && !startsWith(text, i, end, "https://")
+                && !startsWith(text, i, end, "ftp://") && !startsWith(text, i, end, "www.")) {
+            return false;
+        }
+        if (i == 0) {
+            return true;
+        }
+        char before = text.charAt(i - 1);
+        // [text](url), <url>, src="url" and [ref]: url are explicit links
+        if (before == '(' || before == '<' || before == '"' || before == '\'' || before == '=') {
+            return false;
+        }
+        return !(before == ' ' && i >= 2 && text.charAt(i - 2) == ':');
+    }
+
+    private static boolean startsWith(CharSequence text, int start, int end, String prefix) {
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
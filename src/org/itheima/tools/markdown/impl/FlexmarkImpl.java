@@ -3,7 +3,13 @@ package org.itheima.tools.markdown.impl;
 import com.vladsch.flexmark.Extension;
 import com.vladsch.flexmark.IParse;
 import com.vladsch.flexmark.IRender;
+import com.vladsch.flexmark.ast.Document;
+import com.vladsch.flexmark.ast.FencedCodeBlock;
+import com.vladsch.flexmark.ast.Image;
+import com.vladsch.flexmark.ast.ImageRef;
+import com.vladsch.flexmark.ast.IndentedCodeBlock;
 import com.vladsch.flexmark.ast.Node;
+import com.vladsch.flexmark.ast.Reference;
 import com.vladsch.flexmark.ext.abbreviation.AbbreviationExtension;
 import com.vladsch.flexmark.ext.anchorlink.AnchorLinkExtension;
 import com.vladsch.flexmark.ext.autolink.AutolinkExtension;
@@ -22,21 +28,60 @@ import com.vladsch.flexmark.ext.toc.TocExtension;
 import com.vladsch.flexmark.ext.toc.internal.TocOptions;
 import com.vladsch.flexmark.ext.typographic.TypographicExtension;
 import com.vladsch.flexmark.ext.wikilink.WikiLinkExtension;
+import com.vladsch.flexmark.html.CustomNodeRenderer;
 import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.html.HtmlWriter;
+import com.vladsch.flexmark.html.IndependentLinkResolverFactory;
+import com.vladsch.flexmark.html.LinkResolver;
+import com.vladsch.flexmark.html.renderer.LinkType;
+import com.vladsch.flexmark.html.renderer.NodeRenderer;
+import com.vladsch.flexmark.html.renderer.NodeRendererContext;
+import com.vladsch.flexmark.html.renderer.NodeRendererFactory;
+import com.vladsch.flexmark.html.renderer.NodeRenderingHandler;
+import com.vladsch.flexmark.html.renderer.ResolvedLink;
 import com.vladsch.flexmark.parser.Parser;
 import com.vladsch.flexmark.util.KeepType;
 import com.vladsch.flexmark.util.options.DataHolder;
+import com.vladsch.flexmark.util.options.DataKey;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
 import com.vladsch.flexmark.util.options.MutableDataHolder;
 import com.vladsch.flexmark.util.options.MutableDataSet;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
+import org.itheima.tools.markdown.ImageResolver;
 import org.itheima.tools.markdown.Markdown;
-
+import org.itheima.tools.markdown.RenderContext;
+import org.itheima.tools.markdown.RenderTracer;
+import org.itheima.tools.markdown.highlight.CodeHighlighter;
+
+/**
+ * Flexmark's parser and renderer keep no per-document state, so one pair is
+ * shared by all threads.
+ */
 public class FlexmarkImpl
         implements Markdown {
-    private IParse parser;
-    private IRender render;
+    private static final String ENGINE = "flexmark";
+
+    /**
+     * The document's image resolver, read back by {@link ImageLinkResolver} while rendering.
+     */
+    static final DataKey<ImageResolver> IMAGES = new DataKey<>("MD_IMAGE_RESOLVER", ImageResolver.NONE);
+
+    /**
+     * The document's code highlighter, read back by {@link HighlightedCodeRenderer}.
+     */
+    static final DataKey<CodeHighlighter> HIGHLIGHTER = new DataKey<>("MD_CODE_HIGHLIGHTER", CodeHighlighter.shared());
+
+    private final IParse parser;
+    private final IRender render;
+    /** Same as {@link #render}, with all code blocks highlighted on the server. */
+    private final IRender highlightingRender;
+    private final RenderTracer tracer;
 
     public enum ForUseBy {
         PARSER, JAVAFX, SWING, HTML;
@@ -323,9 +368,29 @@ public class FlexmarkImpl
 
 
     public FlexmarkImpl() {
+        this(RenderTracer.NONE);
+    }
+
+    public FlexmarkImpl(RenderTracer tracer) {
+        this.tracer = tracer;
         DataHolder holder = buildDataHolder();
         this.parser = (IParse) Parser.builder(holder).build();
-        this.render = (IRender) HtmlRenderer.builder(holder).escapeHtml(true).indentSize(4).build();
+        this.render = (IRender) rendererBuilder(holder).build();
+        this.highlightingRender = (IRender) rendererBuilder(holder)
+                .nodeRendererFactory(new NodeRendererFactory() {
+                    public NodeRenderer create(DataHolder options) {
+                        return new HighlightedCodeRenderer();
+                    }
+                }).build();
+    }
+
+    private static HtmlRenderer.Builder rendererBuilder(DataHolder holder) {
+        return HtmlRenderer.builder(holder).escapeHtml(true).indentSize(4)
+                .linkResolverFactory(new IndependentLinkResolverFactory() {
+                    public LinkResolver create(NodeRendererContext context) {
+                        return new ImageLinkResolver(context.getDocument().get(IMAGES));
+                    }
+                });
     }
 
 
@@ -341,7 +406,113 @@ public class FlexmarkImpl
 
 
     public String parse(String text) {
-        Node document = this.parser.parse(text);
-        return this.render.render(document);
+        return parse(text, RenderContext.DEFAULT);
+    }
+
+
+    public String parse(String text, RenderContext context) {
+        StringBuilder html = new StringBuilder(text.length() + (text.length() >> 1));
+        render(text, html, context);
+        return html.toString();
+    }
+
+
+    /**
+     * Flexmark parses any CharSequence in place and renders to the Appendable directly.
+     */
+    public void render(CharSequence text, Appendable out, RenderContext context) {
+        Node document = this.parser.parse(BasedSequenceImpl.of(text));
+        if (this.tracer.isEnabled()) {
+            trace(document, 0);
+        }
+        ((Document) document).set(IMAGES, context.getImageResolver());
+        CodeHighlighter highlighter = context.getCodeHighlighter();
+        if (highlighter != null) {
+            ((Document) document).set(HIGHLIGHTER, highlighter);
+            this.highlightingRender.render(document, out);
+        } else {
+            this.render.render(document, out);
+        }
+    }
+
+    private void trace(Node node, int depth) {
+        this.tracer.node(ENGINE, node.getClass().getSimpleName(), depth, node.getStartOffset(), node.getEndOffset());
+        for (Node child = node.getFirstChild(); child != null; child = child.getNext()) {
+            trace(child, depth + 1);
+        }
+    }
+
+    /**
+     * The renderer caches resolved links per document and asks only once per
+     * distinct url, so the resolver is called once for each image node that
+     * uses the url, as the other engines do.
+     */
+    private static class ImageLinkResolver implements LinkResolver {
+        private final ImageResolver images;
+        private Map<String, Integer> uses;
+
+        ImageLinkResolver(ImageResolver images) {
+            this.images = images;
+        }
+
+        public ResolvedLink resolveLink(Node node, NodeRendererContext context, ResolvedLink link) {
+            if (this.images == ImageResolver.NONE || !LinkType.IMAGE.equals(link.getLinkType())) {
+                return link;
+            }
+            if (this.uses == null) {
+                this.uses = new HashMap<>();
+                countImages(context.getDocument(), context.getDocument());
+            }
+            Integer count = this.uses.get(link.getUrl());
+            String url = this.images.resolve(link.getUrl());
+            for (int i = 1; count != null && i < count.intValue(); i++) {
+                this.images.resolve(link.getUrl());
+            }
+            return link.withUrl(url);
+        }
+
+        private void countImages(Node node, Document document) {
+            String url = null;
+            if (node instanceof Image) {
+                url = ((Image) node).getUrl().unescape();
+            } else if (node instanceof ImageRef) {
+                Reference reference = ((ImageRef) node).getReferenceNode(document);
+                url = reference == null ? null : reference.getUrl().unescape();
+            }
+            if (url != null) {
+                Integer count = this.uses.get(url);
+                this.uses.put(url, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+            }
+            for (Node child = node.getFirstChild(); child != null; child = child.getNext()) {
+                countImages(child, document);
+            }
+        }
+    }
+
+    /**
+     * Replaces the core renderer's fenced and indented code blocks.
+     */
+    private static class HighlightedCodeRenderer implements NodeRenderer {
+
+        public Set<NodeRenderingHandler<?>> getNodeRenderingHandlers() {
+            Set<NodeRenderingHandler<?>> handlers = new HashSet<>();
+            handlers.add(new NodeRenderingHandler<>(FencedCodeBlock.class, new CustomNodeRenderer<FencedCodeBlock>() {
+                public void render(FencedCodeBlock node, NodeRendererContext context, HtmlWriter html) {
+                    write(context, html, node.getInfo().unescape(), node.getContentChars().normalizeEOL());
+                }
+            }));
+            handlers.add(new NodeRenderingHandler<>(IndentedCodeBlock.class, new CustomNodeRenderer<IndentedCodeBlock>() {
+                public void render(IndentedCodeBlock node, NodeRendererContext context, HtmlWriter html) {
+                    write(context, html, null, node.getContentChars().trimTailBlankLines().normalizeEndWithEOL());
+                }
+            }));
+            return handlers;
+        }
+
+        private static void write(NodeRendererContext context, HtmlWriter html, String info, String code) {
+            html.line();
+            html.rawPre(context.getDocument().get(HIGHLIGHTER).highlight(info, code));
+            html.line();
+        }
     }
 }
@@ -1,54 +1,187 @@
 package org.itheima.tools.markdown.impl;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang.StringEscapeUtils;
+import org.itheima.tools.markdown.FileImageResolver;
+import org.itheima.tools.markdown.HtmlImages;
+import org.itheima.tools.markdown.ImageResolver;
 import org.itheima.tools.markdown.Markdown;
-import org.parboiled.common.StringUtils;
+import org.itheima.tools.markdown.RenderContext;
+import org.itheima.tools.markdown.RenderTracer;
+import org.itheima.tools.markdown.highlight.CodeHighlighter;
 import org.pegdown.LinkRenderer;
 import org.pegdown.PegDownProcessor;
 import org.pegdown.Printer;
 import org.pegdown.ToHtmlSerializer;
 import org.pegdown.VerbatimSerializer;
+import org.pegdown.ast.AnchorLinkNode;
 import org.pegdown.ast.CodeNode;
+import org.pegdown.ast.ExpImageNode;
+import org.pegdown.ast.HtmlBlockNode;
+import org.pegdown.ast.InlineHtmlNode;
 import org.pegdown.ast.Node;
+import org.pegdown.ast.RefImageNode;
 import org.pegdown.ast.RootNode;
 import org.pegdown.ast.VerbatimNode;
 import org.pegdown.ast.Visitor;
-import org.pegdown.plugins.PegDownPlugins;
 import org.pegdown.plugins.ToHtmlSerializerPlugin;
 
 
+/**
+ * Parsing is thread-confined: each thread lazily gets its own {@link PegDownProcessor},
+ * so constructing this class costs nothing until the first document.
+ * The serializer plugins and link renderer are stateless and shared; only the
+ * {@link ToHtmlSerializer}, which holds the output of a single document, is
+ * created per call.
+ */
 public class PegdownImpl
         implements Markdown {
-    private PegDownProcessor processor;
+    private static final String ENGINE = "pegdown";
 
-    public PegdownImpl() {
-        PegDownPlugins plugins = (new PegDownPlugins.Builder()).withHtmlSerializer(new ToHtmlSerializerPlugin[]{new CustomToHtmlSerializerPlugin(null)
-        }).build();
+    private static final LinkRenderer LINK_RENDERER = new LinkRenderer();
+
+    private final RenderTracer tracer;
+    private final List<ToHtmlSerializerPlugin> serializerPlugins;
 
-        this.processor = new PegDownProcessor(65535);
+    /**
+     * The parboiled parser inside a {@link PegDownProcessor} keeps per-parse state, so each thread gets its own,
+     * shared by all instances: the default engine, the router's delegate and the budget's fallback.
+     */
+    private static final ThreadLocal<PegDownProcessor> PROCESSOR = new ThreadLocal<PegDownProcessor>() {
+        protected PegDownProcessor initialValue() {
+            return new PegDownProcessor(65535);
+        }
+    };
+
+    public PegdownImpl() {
+        this(RenderTracer.NONE);
     }
 
+    public PegdownImpl(RenderTracer tracer) {
+        this.tracer = tracer;
+        this.serializerPlugins = Collections.<ToHtmlSerializerPlugin>singletonList(new CustomToHtmlSerializerPlugin(tracer));
+    }
 
     public String parse(String text) {
-        RootNode node = this.processor.parseMarkdown(text.toCharArray());
+        return parse(text, RenderContext.DEFAULT);
+    }
+
+    public String parse(String text, RenderContext context) {
+        return serialize(text, context).toHtml(parseMarkdown(text));
+    }
+
+    /**
+     * Appends the serializer's buffer to {@code out} instead of turning it into a String first.
+     */
+    public void render(CharSequence text, Appendable out, RenderContext context) throws IOException {
+        serialize(text, context).render(parseMarkdown(text), out);
+    }
+
+    private RootNode parseMarkdown(CharSequence text) {
+        RootNode node = PROCESSOR.get().parseMarkdown(toChars(text));
+        if (this.tracer.isEnabled()) {
+            trace(node, 0);
+        }
+        return node;
+    }
+
+    private CustomToHtmlSerializer serialize(CharSequence text, RenderContext context) {
+        ImageResolver images = context.getImageResolver();
+        LinkRenderer linkRenderer = images == ImageResolver.NONE ? LINK_RENDERER : new ImageLinkRenderer(images);
+        CodeHighlighter highlighter = context.getCodeHighlighter();
+        if (highlighter != null) {
+            return new CustomToHtmlSerializer(linkRenderer, Collections.<String, VerbatimSerializer>singletonMap(
+                    VerbatimSerializer.DEFAULT, new CustomVerbatimSerializer(highlighter)), this.serializerPlugins, images);
+        }
+        return new CustomToHtmlSerializer(linkRenderer, this.serializerPlugins, images);
+    }
 
-        List<ToHtmlSerializerPlugin> serializePlugins = Arrays.asList(new ToHtmlSerializerPlugin[]{new CustomToHtmlSerializerPlugin(null)});
+    /**
+     * Pegdown parses a char[]; a CharBuffer spanning its whole array is used as is.
+     */
+    private static char[] toChars(CharSequence text) {
+        if (text instanceof String) {
+            return ((String) text).toCharArray();
+        }
+        if (text instanceof CharBuffer) {
+            CharBuffer buffer = (CharBuffer) text;
+            if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                    && buffer.remaining() == buffer.array().length) {
+                return buffer.array();
+            }
+        }
+        char[] chars = new char[text.length()];
+        if (text instanceof StringBuilder) {
+            ((StringBuilder) text).getChars(0, chars.length, chars, 0);
+        } else {
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = text.charAt(i);
+            }
+        }
+        return chars;
+    }
 
-        String finalHtml = (new CustomToHtmlSerializer(new LinkRenderer(), serializePlugins)).toHtml(node);
-        return finalHtml;
+    private void trace(Node node, int depth) {
+        this.tracer.node(ENGINE, node.getClass().getSimpleName(), depth, node.getStartIndex(), node.getEndIndex());
+        for (Node child : node.getChildren()) {
+            trace(child, depth + 1);
+        }
+    }
+
+    /**
+     * Resolves the source of markdown images as they are rendered.
+     */
+    private static class ImageLinkRenderer extends LinkRenderer {
+        private final ImageResolver images;
+
+        ImageLinkRenderer(ImageResolver images) {
+            this.images = images;
+        }
+
+        public Rendering render(ExpImageNode node, String text) {
+            return resolve(super.render(node, text));
+        }
+
+        public Rendering render(RefImageNode node, String url, String title, String alt) {
+            return resolve(super.render(node, url, title, alt));
+        }
+
+        private Rendering resolve(Rendering rendering) {
+            Rendering resolved = new Rendering(this.images.resolve(rendering.href), rendering.text);
+            for (Attribute attribute : rendering.attributes) {
+                resolved = resolved.withAttribute(attribute);
+            }
+            return resolved;
+        }
     }
 
     private static class CustomToHtmlSerializer
             extends ToHtmlSerializer {
+        private ImageResolver images = ImageResolver.NONE;
+
         public CustomToHtmlSerializer(LinkRenderer linkRenderer) {
             super(linkRenderer);
         }
 
 
+        public CustomToHtmlSerializer(LinkRenderer linkRenderer, List<ToHtmlSerializerPlugin> plugins, ImageResolver images) {
+            super(linkRenderer, plugins);
+            this.images = images;
+        }
+
+
+        public CustomToHtmlSerializer(LinkRenderer linkRenderer, Map<String, VerbatimSerializer> verbatimSerializers,
+                                      List<ToHtmlSerializerPlugin> plugins, ImageResolver images) {
+            super(linkRenderer, verbatimSerializers, plugins);
+            this.images = images;
+        }
+
+
         public CustomToHtmlSerializer(LinkRenderer linkRenderer, List<ToHtmlSerializerPlugin> plugins) {
             super(linkRenderer, plugins);
         }
@@ -64,12 +197,42 @@ public class PegdownImpl
         }
 
 
+        void render(RootNode root, Appendable out) throws IOException {
+            root.accept(this);
+            out.append(this.printer.sb);
+        }
+
+
+        public void visit(HtmlBlockNode node) {
+            String text = HtmlImages.rewrite(node.getText(), this.images);
+            if (text.length() > 0) {
+                this.printer.println();
+            }
+            this.printer.print(text);
+        }
+
+
+        public void visit(InlineHtmlNode node) {
+            this.printer.print(HtmlImages.rewrite(node.getText(), this.images));
+        }
+
+
+        /**
+         * Names the anchor after the heading as written, not after its escaped placeholder characters.
+         */
+        public void visit(AnchorLinkNode node) {
+            String text = FileImageResolver.unescape(node.getText());
+            super.visit(text.equals(node.getText()) ? node : new AnchorLinkNode(text, node.getText()));
+        }
+
+
         public void visit(CodeNode node) {
             String preTag = "pre";
             String codeTag = "code";
             boolean needPre = false;
 
-            String text = node.getText();
+            // escapeHtml writes non-ASCII as numeric references, escaped placeholder characters included
+            String text = FileImageResolver.unescape(node.getText());
             while (text.charAt(0) == '\n' || text.charAt(0) == '\r') {
                 text = text.substring(1);
             }
@@ -91,44 +254,39 @@ public class PegdownImpl
         }
     }
 
+    /**
+     * Swallows nodes no other serializer knows about, reporting them to the tracer.
+     */
     private static class CustomToHtmlSerializerPlugin implements ToHtmlSerializerPlugin {
-        private CustomToHtmlSerializerPlugin(Object o) {
+        private final RenderTracer tracer;
+
+        private CustomToHtmlSerializerPlugin(RenderTracer tracer) {
+            this.tracer = tracer;
         }
 
         public boolean visit(Node node, Visitor visitor, Printer printer) {
-            System.out.println(node);
-            System.out.println(visitor);
+            if (this.tracer.isEnabled()) {
+                this.tracer.node(ENGINE, "unhandled:" + node.getClass().getSimpleName(), -1, node.getStartIndex(),
+                        node.getEndIndex());
+            }
 
             return true;
         }
     }
 
+    /**
+     * Writes every code block, fenced or indented, highlighted on the server.
+     */
     private static class CustomVerbatimSerializer
             implements VerbatimSerializer {
-        public void serialize(VerbatimNode node, Printer printer) {
-            printer.println().print("<pre><code");
-            if (!StringUtils.isEmpty(node.getType())) {
-                printAttribute(printer, "class", node.getType());
-            }
-            printer.print(">");
-            String text = node.getText();
-
-            while (text.charAt(0) == '\n') {
-                printer.print("<br/>");
-                text = text.substring(1);
-            }
-
-            String all = text.replaceAll("\n", "<br/>").replaceAll("\\t", "&nbsp;&nbsp;&nbsp;&nbsp;").replaceAll(" ",
-                    "&nbsp;");
-            System.out.println(all);
+        private final CodeHighlighter highlighter;
 
-            printer.printEncoded(all);
-            printer.print("</code></pre>");
+        CustomVerbatimSerializer(CodeHighlighter highlighter) {
+            this.highlighter = highlighter;
         }
 
-
-        private void printAttribute(Printer printer, String name, String value) {
-            printer.print(' ').print(name).print('=').print('"').print(value).print('"');
+        public void serialize(VerbatimNode node, Printer printer) {
+            printer.println().print(this.highlighter.highlight(node.getType(), node.getText()));
         }
     }
 }
@@ -0,0 +1,304 @@
+package org.itheima.tools.markdown.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.itheima.tools.markdown.ImageResolver;
+import org.itheima.tools.markdown.Markdown;
+import org.itheima.tools.markdown.RenderContext;
+import org.itheima.tools.markdown.highlight.CodeHighlighter;
+import org.itheima.tools.markdown.metrics.DocumentMetrics;
+
+/**
+ * Renders a large document in pieces on a fork-join pool, producing the same
+ * HTML as {@code delegate} rendering it whole.
+ * <p>
+ * The document is cut at top-level block boundaries found by
+ * {@link BlockSplitter}, each piece carrying the document's link reference
+ * definitions. Documents below the threshold, or with constructs that reach
+ * across blocks, are handed to the delegate whole, and so are documents
+ * containing the private use characters that mark images in a rendered
+ * piece. Images are resolved after all pieces are rendered, in document
+ * order, so the page's image numbering matches a sequential render. What the
+ * workers allocate is added to the context's metrics.
+ */
+public class SplitMarkdown implements Markdown {
+
+    /** 1M chars; smaller documents gain little from splitting. */
+    public static final int DEFAULT_THRESHOLD = 1024 * 1024;
+
+    /** 64K chars, so each piece amortizes its task and the definitions it carries. */
+    public static final int DEFAULT_PIECE_CHARS = 64 * 1024;
+
+    /** Surround a piece-local image number until the page's resolver supplies the source. */
+    private static final char IMAGE_START = '\uE002';
+    private static final char IMAGE_END = '\uE003';
+
+    private static volatile ForkJoinPool pool;
+
+    private final Markdown delegate;
+    private final int threshold;
+    private final int pieceChars;
+
+    public SplitMarkdown(Markdown delegate) {
+        this(delegate, DEFAULT_THRESHOLD, DEFAULT_PIECE_CHARS);
+    }
+
+    /**
+     * @param threshold  shortest document split
+     * @param pieceChars shortest piece; pieces grow to a few per core before being cut at the next block boundary
+     */
+    public SplitMarkdown(Markdown delegate, int threshold, int pieceChars) {
+        this.delegate = delegate;
+        this.threshold = threshold;
+        this.pieceChars = pieceChars;
+    }
+
+    public Markdown getDelegate() {
+        return this.delegate;
+    }
+
+    /**
+     * The same splitting in front of another engine.
+     */
+    public SplitMarkdown withDelegate(Markdown markdown) {
+        return new SplitMarkdown(markdown, this.threshold, this.pieceChars);
+    }
+
+    public String parse(String text) {
+        return parse(text, RenderContext.DEFAULT);
+    }
+
+    public String parse(String text, RenderContext context) {
+        StringBuilder out = new StringBuilder(text.length() + (text.length() >> 1));
+        try {
+            render(text, out, context);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    public void render(CharSequence text, Appendable out, RenderContext context) throws IOException {
+        Markdown engine = this.delegate;
+        if (engine instanceof AdaptiveMarkdown) {
+            // route once, so every piece goes to the same engine
+            AdaptiveMarkdown adaptive = (AdaptiveMarkdown) engine;
+            engine = adaptive.delegate(adaptive.route(text));
+        }
+        BlockSplitter.Split split = text.length() >= this.threshold && !hasMarkers(text)
+                ? BlockSplitter.split(text, pieceChars(text)) : null;
+        if (split == null) {
+            engine.render(text, out, context);
+            return;
+        }
+
+        ForkJoinPool workers = pool();
+        List<Future<Piece>> pieces = new ArrayList<>(split.size());
+        for (int i = 0; i < split.size(); i++) {
+            pieces.add(workers.submit(new PieceTask(engine, split, i, context, Thread.currentThread())));
+        }
+        try {
+            boolean open = false;
+            for (Future<Piece> future : pieces) {
+                Piece piece = future.get();
+                context.getMetrics().addAllocatedBytes(piece.allocated);
+                if (piece.html.length() == 0) {
+                    continue;
+                }
+                if (open) {
+                    // pegdown separates blocks with a newline but ends without one
+                    out.append('\n');
+                }
+                piece.writeTo(out, context.getImageResolver());
+                open = piece.html.charAt(piece.html.length() - 1) != '\n';
+            }
+        } catch (InterruptedException e) {
+            cancel(pieces);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering");
+        } catch (ExecutionException e) {
+            cancel(pieces);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Whether {@code text} holds the characters marking a piece's images; such a document is rendered whole.
+     */
+    private static boolean hasMarkers(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == IMAGE_START || c == IMAGE_END) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A few pieces per worker, so uneven pieces even out.
+     */
+    private int pieceChars(CharSequence text) {
+        return Math.max(this.pieceChars, text.length() / (4 * Runtime.getRuntime().availableProcessors()));
+    }
+
+    private static void cancel(List<Future<Piece>> pieces) {
+        for (Future<Piece> future : pieces) {
+            future.cancel(true);
+        }
+    }
+
+    private static ForkJoinPool pool() {
+        ForkJoinPool result = pool;
+        if (result == null) {
+            synchronized (SplitMarkdown.class) {
+                result = pool;
+                if (result == null) {
+                    result = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), new WorkerFactory(), null, false);
+                    pool = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static class PieceTask implements Callable<Piece> {
+        private final Markdown engine;
+        private final BlockSplitter.Split split;
+        private final int index;
+        private final RenderContext context;
+        /** Counts its own allocations, should it run a piece itself. */
+        private final Thread caller;
+
+        PieceTask(Markdown engine, BlockSplitter.Split split, int index, RenderContext context, Thread caller) {
+            this.engine = engine;
+            this.split = split;
+            this.index = index;
+            this.context = context;
+            this.caller = caller;
+        }
+
+        public Piece call() throws IOException {
+            DocumentMetrics metrics = this.context.getMetrics();
+            Thread thread = Thread.currentThread();
+            long start = metrics.allocatedBytes(thread);
+            Piece piece = new Piece(this.engine, this.split.piece(this.index), this.context.getCodeHighlighter());
+            piece.render();
+            if (thread != this.caller) {
+                piece.allocated = metrics.allocatedBytes(thread) - start;
+            }
+            return piece;
+        }
+    }
+
+    /**
+     * A rendered piece; stands in for the page's resolver, noting sources and numbering them locally.
+     */
+    private static class Piece implements ImageResolver {
+        final Markdown engine;
+        final String text;
+        final CodeHighlighter highlighter;
+        final StringBuilder html;
+        final List<String> sources = new ArrayList<>();
+        /** Bytes allocated rendering the piece on a worker thread. */
+        long allocated;
+
+        Piece(Markdown engine, String text, CodeHighlighter highlighter) {
+            this.engine = engine;
+            this.text = text;
+            this.highlighter = highlighter;
+            this.html = new StringBuilder(text.length() + (text.length() >> 1));
+        }
+
+        void render() throws IOException {
+            this.engine.render(this.text, this.html, new RenderContext(this, this.highlighter));
+        }
+
+        public String resolve(String src) {
+            this.sources.add(src);
+            return IMAGE_START + Integer.toString(this.sources.size() - 1) + IMAGE_END;
+        }
+
+        /**
+         * Resolves this piece's images with {@code images} and writes the piece.
+         */
+        void writeTo(Appendable out, ImageResolver images) throws IOException {
+            if (this.sources.isEmpty()) {
+                out.append(this.html);
+                return;
+            }
+            final String[] resolved = new String[this.sources.size()];
+            boolean verbatim = true;
+            for (int i = 0; i < resolved.length; i++) {
+                resolved[i] = images.resolve(this.sources.get(i));
+                verbatim &= isVerbatim(resolved[i]);
+            }
+            if (!verbatim) {
+                // the engine escapes or encodes such sources its own way: render the piece again with them
+                StringBuilder html = new StringBuilder(this.html.length());
+                this.engine.render(this.text, html, new RenderContext(new ImageResolver() {
+                    private int next;
+
+                    public String resolve(String src) {
+                        return resolved[this.next++];
+                    }
+                }, this.highlighter));
+                out.append(html);
+                return;
+            }
+            int from = 0;
+            for (int i = 0; i < this.html.length(); i++) {
+                if (this.html.charAt(i) == IMAGE_START) {
+                    int end = this.html.indexOf(String.valueOf(IMAGE_END), i);
+                    out.append(this.html, from, i);
+                    out.append(resolved[Integer.parseInt(this.html.substring(i + 1, end))]);
+                    from = end + 1;
+                    i = end;
+                }
+            }
+            out.append(this.html, from, this.html.length());
+        }
+    }
+
+    /**
+     * Whether every engine writes {@code src} into the attribute unchanged: placeholders and plain paths.
+     */
+    private static boolean isVerbatim(String src) {
+        for (int i = 0; i < src.length(); i++) {
+            char c = src.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '/' || c == '.'
+                    || c == '_' || c == '-' || c == '\uE000' || c == '\uE001')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class WorkerFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("md-split-" + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,11 +1,70 @@
 package org.itheima.tools.markdown.impl;
 
+import java.util.List;
+
+import com.github.rjeschke.txtmark.BlockEmitter;
+import com.github.rjeschke.txtmark.Configuration;
 import com.github.rjeschke.txtmark.Processor;
+import org.itheima.tools.markdown.HtmlImages;
 import org.itheima.tools.markdown.Markdown;
+import org.itheima.tools.markdown.RenderContext;
+import org.itheima.tools.markdown.RenderTracer;
+import org.itheima.tools.markdown.highlight.CodeHighlighter;
 
+/**
+ * {@link Processor#process(String)} creates a fresh processor per call and is thread-safe.
+ */
 public class TxtmarkImpl
         implements Markdown {
+    private final RenderTracer tracer;
+
+    public TxtmarkImpl() {
+        this(RenderTracer.NONE);
+    }
+
+    /**
+     * Txtmark exposes no AST, so the tracer only sees the document itself.
+     */
+    public TxtmarkImpl(RenderTracer tracer) {
+        this.tracer = tracer;
+    }
+
     public String parse(String text) {
+        if (this.tracer.isEnabled()) {
+            this.tracer.node("txtmark", "Document", 0, 0, text.length());
+        }
         return Processor.process(text);
     }
+
+    public String parse(String text, RenderContext context) {
+        CodeHighlighter highlighter = context.getCodeHighlighter();
+        if (highlighter == null) {
+            return Markdown.super.parse(text, context);
+        }
+        if (this.tracer.isEnabled()) {
+            this.tracer.node("txtmark", "Document", 0, 0, text.length());
+        }
+        Configuration configuration = Configuration.builder()
+                .setCodeBlockEmitter(new HighlightingBlockEmitter(highlighter)).build();
+        return HtmlImages.rewrite(Processor.process(text, configuration), context.getImageResolver());
+    }
+
+    /**
+     * Replaces the whole {@code <pre><code>} block the default decorator would write.
+     */
+    private static class HighlightingBlockEmitter implements BlockEmitter {
+        private final CodeHighlighter highlighter;
+
+        HighlightingBlockEmitter(CodeHighlighter highlighter) {
+            this.highlighter = highlighter;
+        }
+
+        public void emitBlock(StringBuilder out, List<String> lines, String meta) {
+            StringBuilder code = new StringBuilder();
+            for (String line : lines) {
+                code.append(line).append('\n');
+            }
+            out.append(this.highlighter.highlight(meta, code.toString())).append('\n');
+        }
+    }
 }
@@ -0,0 +1,249 @@
+package org.itheima.tools.markdown.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-stage measurements of one document.
+ * <p>
+ * Sizes are in bytes throughout: what is read and written as such, and text
+ * in memory as its UTF-8 encoding (see {@link #bytes}). Allocated bytes
+ * come from the HotSpot thread allocation counters and are -1 where the JVM
+ * does not provide them: the rendering thread's, plus what the threads a
+ * stage hands work to report through {@link #addAllocatedBytes}. Instances
+ * are confined to the rendering thread until handed to the listeners, that
+ * method aside.
+ */
+public class DocumentMetrics {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private static final boolean ALLOCATION_SUPPORTED = allocationSupported();
+
+    private final String document;
+    private final boolean enabled;
+    private String engine;
+    private boolean routed;
+    private String fallback;
+    private String cache;
+    private String failure;
+
+    private final long[] durationNanos = new long[Stage.values().length];
+    private final long[] inputSize = new long[Stage.values().length];
+    private final long[] outputSize = new long[Stage.values().length];
+    private final long[] allocatedBytes = new long[Stage.values().length];
+
+    private long stageStart;
+    private long stageAllocationStart;
+    /** Allocated on other threads during the stage in progress. */
+    private final AtomicLong stageAllocationElsewhere = new AtomicLong();
+
+    DocumentMetrics(String document, boolean enabled) {
+        this.document = document;
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public void startStage() {
+        if (!this.enabled) {
+            return;
+        }
+        this.stageAllocationStart = allocatedBytes(Thread.currentThread());
+        this.stageAllocationElsewhere.set(0);
+        this.stageStart = System.nanoTime();
+    }
+
+    public void endStage(Stage stage, long input, long output) {
+        if (!this.enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        int i = stage.ordinal();
+        this.durationNanos[i] += now - this.stageStart;
+        this.inputSize[i] += input;
+        this.outputSize[i] += output;
+        this.allocatedBytes[i] += allocatedBytes(Thread.currentThread()) - this.stageAllocationStart
+                + this.stageAllocationElsewhere.getAndSet(0);
+    }
+
+    /**
+     * @return the allocation counter of {@code thread}, for measuring work a
+     * stage hands to it, or 0 when nothing is measured
+     */
+    public long allocatedBytes(Thread thread) {
+        return this.enabled && ALLOCATION_SUPPORTED ? threadAllocatedBytes(thread.getId()) : 0;
+    }
+
+    /**
+     * Counts bytes allocated for the document on another thread towards the
+     * stage in progress. May be called from any thread.
+     */
+    public void addAllocatedBytes(long bytes) {
+        if (!this.enabled) {
+            return;
+        }
+        this.stageAllocationElsewhere.addAndGet(bytes);
+    }
+
+    /**
+     * @return the UTF-8 size of {@code text}, or 0 when disabled, so sizes are only counted when recorded
+     */
+    public long bytes(CharSequence text) {
+        if (!this.enabled) {
+            return 0;
+        }
+        long bytes = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x800) {
+                // two more bytes, or one more per half of a surrogate pair
+                bytes += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+
+    public void setEngine(String engine) {
+        if (!this.enabled) {
+            return;
+        }
+        this.engine = engine;
+    }
+
+    /**
+     * Marks the engine as chosen per document by the adaptive router.
+     */
+    public void setRouted(boolean routed) {
+        if (!this.enabled) {
+            return;
+        }
+        this.routed = routed;
+    }
+
+    public boolean isRouted() {
+        return this.routed;
+    }
+
+    /**
+     * Records that the budget rejected the chosen engine, and why.
+     */
+    public void setFallback(String reason) {
+        if (!this.enabled) {
+            return;
+        }
+        this.fallback = reason;
+    }
+
+    /**
+     * @return {@code size}, {@code time} or {@code error} if the document was
+     * rendered by the fallback engine, else null
+     */
+    public String getFallback() {
+        return this.fallback;
+    }
+
+    /**
+     * Records how the render cache served the document.
+     */
+    public void setCache(String result) {
+        if (!this.enabled) {
+            return;
+        }
+        this.cache = result;
+    }
+
+    /**
+     * @return {@code miss}, {@code hit} or {@code unchanged}, or null without a render cache
+     */
+    public String getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Records that the document was not written, having failed with {@code error}.
+     */
+    public void setFailure(Throwable error) {
+        if (!this.enabled) {
+            return;
+        }
+        this.failure = error.getClass().getSimpleName();
+    }
+
+    /**
+     * @return the simple name of the exception the document failed with, or null if it was written
+     */
+    public String getFailure() {
+        return this.failure;
+    }
+
+    public String getDocument() {
+        return this.document;
+    }
+
+    public String getEngine() {
+        return this.engine;
+    }
+
+    public long getDurationNanos(Stage stage) {
+        return this.durationNanos[stage.ordinal()];
+    }
+
+    public long getInputSize(Stage stage) {
+        return this.inputSize[stage.ordinal()];
+    }
+
+    public long getOutputSize(Stage stage) {
+        return this.outputSize[stage.ordinal()];
+    }
+
+    /**
+     * @return bytes allocated for the document during the stage, on whichever thread, or -1 if unknown
+     */
+    public long getAllocatedBytes(Stage stage) {
+        return ALLOCATION_SUPPORTED ? this.allocatedBytes[stage.ordinal()] : -1;
+    }
+
+    public long getTotalDurationNanos() {
+        long total = 0;
+        for (long d : this.durationNanos) {
+            total += d;
+        }
+        return total;
+    }
+
+    public long getTotalAllocatedBytes() {
+        if (!ALLOCATION_SUPPORTED) {
+            return -1;
+        }
+        long total = 0;
+        for (long a : this.allocatedBytes) {
+            total += a;
+        }
+        return total;
+    }
+
+    private static long threadAllocatedBytes(long id) {
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(id);
+    }
+
+    private static boolean allocationSupported() {
+        try {
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+                if (threads.isThreadAllocatedMemorySupported()) {
+                    threads.setThreadAllocatedMemoryEnabled(true);
+                    return true;
+                }
+            }
+        } catch (LinkageError | UnsupportedOperationException e) {
+            // not a HotSpot JVM
+        }
+        return false;
+    }
+}
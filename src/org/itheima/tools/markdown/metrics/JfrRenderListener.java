@@ -0,0 +1,128 @@
+package org.itheima.tools.markdown.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits every document and stage as JDK Flight Recorder events
+ * ({@code org.itheima.md.Document} and {@code org.itheima.md.Stage}), so they
+ * show up next to GC and allocation data in a recording.
+ * <p>
+ * Only register it after checking {@link #isAvailable()}.
+ */
+public class JfrRenderListener implements RenderListener {
+
+    public static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, JfrRenderListener.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    public void documentRendered(DocumentMetrics metrics) {
+        for (Stage stage : Stage.values()) {
+            StageEvent event = new StageEvent();
+            if (!event.isEnabled()) {
+                break;
+            }
+            event.document = metrics.getDocument();
+            event.engine = metrics.getEngine();
+            event.stage = stage.name();
+            event.elapsed = metrics.getDurationNanos(stage);
+            event.input = metrics.getInputSize(stage);
+            event.output = metrics.getOutputSize(stage);
+            event.allocated = metrics.getAllocatedBytes(stage);
+            event.commit();
+        }
+
+        DocumentEvent event = new DocumentEvent();
+        if (event.isEnabled()) {
+            event.document = metrics.getDocument();
+            event.engine = metrics.getEngine();
+            event.routed = metrics.isRouted();
+            event.fallback = metrics.getFallback();
+            event.cache = metrics.getCache();
+            event.failure = metrics.getFailure();
+            event.elapsed = metrics.getTotalDurationNanos();
+            event.input = metrics.getInputSize(Stage.READ);
+            event.output = metrics.getOutputSize(Stage.WRITE);
+            event.allocated = metrics.getTotalAllocatedBytes();
+            event.commit();
+        }
+    }
+
+    @Name("org.itheima.md.Stage")
+    @Label("Markdown Render Stage")
+    @Category("Markdown")
+    static class StageEvent extends Event {
+        @Label("Document")
+        String document;
+
+        @Label("Engine")
+        String engine;
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+        @Label("Input Bytes")
+        @DataAmount
+        long input;
+
+        @Label("Output Bytes")
+        @DataAmount
+        long output;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    @Name("org.itheima.md.Document")
+    @Label("Markdown Document")
+    @Category("Markdown")
+    static class DocumentEvent extends Event {
+        @Label("Document")
+        String document;
+
+        @Label("Engine")
+        String engine;
+
+        @Label("Routed")
+        boolean routed;
+
+        @Label("Fallback Reason")
+        String fallback;
+
+        @Label("Cache Result")
+        String cache;
+
+        @Label("Failure")
+        String failure;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+        @Label("Input Bytes")
+        @DataAmount
+        long input;
+
+        @Label("Output Bytes")
+        @DataAmount
+        long output;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+}
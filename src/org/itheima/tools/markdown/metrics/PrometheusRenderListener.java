@@ -0,0 +1,133 @@
+package org.itheima.tools.markdown.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates documents into counters and writes them in the Prometheus text
+ * exposition format, e.g. for the node exporter's textfile collector after a
+ * batch run.
+ */
+public class PrometheusRenderListener implements RenderListener {
+
+    private static final String PREFIX = "md_render_";
+
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder[] seconds = adders();
+    private final LongAdder[] inputs = adders();
+    private final LongAdder[] outputs = adders();
+    private final LongAdder[] allocated = adders();
+    /** Keyed by the rendered label set. */
+    private final Map<String, LongAdder> engines = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> fallbacks = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> cache = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+    public void documentRendered(DocumentMetrics metrics) {
+        this.documents.increment();
+        for (Stage stage : Stage.values()) {
+            int i = stage.ordinal();
+            this.seconds[i].add(metrics.getDurationNanos(stage));
+            this.inputs[i].add(metrics.getInputSize(stage));
+            this.outputs[i].add(metrics.getOutputSize(stage));
+            long bytes = metrics.getAllocatedBytes(stage);
+            if (bytes > 0) {
+                this.allocated[i].add(bytes);
+            }
+        }
+        String engine = "engine=\"" + (metrics.getEngine() == null ? "unknown" : metrics.getEngine())
+                + "\",routed=\"" + metrics.isRouted() + "\"";
+        this.engines.computeIfAbsent(engine, k -> new LongAdder()).increment();
+        if (metrics.getFallback() != null) {
+            this.fallbacks.computeIfAbsent(metrics.getFallback(), k -> new LongAdder()).increment();
+        }
+        if (metrics.getCache() != null) {
+            this.cache.computeIfAbsent(metrics.getCache(), k -> new LongAdder()).increment();
+        }
+        if (metrics.getFailure() != null) {
+            this.failures.computeIfAbsent(metrics.getFailure(), k -> new LongAdder()).increment();
+        }
+    }
+
+    public void write(Writer out) throws IOException {
+        out.write("# TYPE " + PREFIX + "documents_total counter\n");
+        out.write(PREFIX + "documents_total " + this.documents.sum() + "\n");
+
+        out.write("# TYPE " + PREFIX + "engine_documents_total counter\n");
+        for (Map.Entry<String, LongAdder> engine : new TreeMap<>(this.engines).entrySet()) {
+            out.write(PREFIX + "engine_documents_total{" + engine.getKey() + "} " + engine.getValue().sum() + "\n");
+        }
+
+        out.write("# TYPE " + PREFIX + "fallbacks_total counter\n");
+        for (Map.Entry<String, LongAdder> fallback : new TreeMap<>(this.fallbacks).entrySet()) {
+            out.write(PREFIX + "fallbacks_total{reason=\"" + fallback.getKey() + "\"} " + fallback.getValue().sum() + "\n");
+        }
+
+        out.write("# TYPE " + PREFIX + "cache_documents_total counter\n");
+        for (Map.Entry<String, LongAdder> result : new TreeMap<>(this.cache).entrySet()) {
+            out.write(PREFIX + "cache_documents_total{result=\"" + result.getKey() + "\"} " + result.getValue().sum() + "\n");
+        }
+
+        out.write("# TYPE " + PREFIX + "failures_total counter\n");
+        for (Map.Entry<String, LongAdder> failure : new TreeMap<>(this.failures).entrySet()) {
+            out.write(PREFIX + "failures_total{error=\"" + failure.getKey() + "\"} " + failure.getValue().sum() + "\n");
+        }
+
+        out.write("# TYPE " + PREFIX + "stage_seconds_total counter\n");
+        for (Stage stage : Stage.values()) {
+            out.write(stageSample("stage_seconds_total", stage, this.seconds[stage.ordinal()].sum() / 1e9));
+        }
+        writeCounter(out, "stage_input_bytes_total", this.inputs);
+        writeCounter(out, "stage_output_bytes_total", this.outputs);
+        writeCounter(out, "stage_allocated_bytes_total", this.allocated);
+        out.flush();
+    }
+
+    /**
+     * Writes the metrics to {@code file} via a temporary file and a rename, so
+     * a collector never reads a half-written file.
+     */
+    public void writeTo(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        // createTempFile wants a prefix of at least 3 chars
+        File tmp = File.createTempFile("." + file.getName() + ".", ".tmp", dir);
+        try {
+            Writer out = new OutputStreamWriter(Files.newOutputStream(tmp.toPath()), "UTF-8");
+            try {
+                write(out);
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static void writeCounter(Writer out, String name, LongAdder[] values) throws IOException {
+        out.write("# TYPE " + PREFIX + name + " counter\n");
+        for (Stage stage : Stage.values()) {
+            out.write(stageSample(name, stage, values[stage.ordinal()].sum()));
+        }
+    }
+
+    private static String stageSample(String name, Stage stage, Object value) {
+        return PREFIX + name + "{stage=\"" + stage.name().toLowerCase() + "\"} " + value + "\n";
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[Stage.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
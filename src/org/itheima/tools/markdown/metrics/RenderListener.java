@@ -0,0 +1,11 @@
+package org.itheima.tools.markdown.metrics;
+
+/**
+ * Notified after each document went through the pipeline, including those
+ * that failed on the way (see {@link DocumentMetrics#getFailure()}).
+ * Called on the rendering thread, so implementations must be thread-safe and cheap.
+ */
+public interface RenderListener {
+
+    void documentRendered(DocumentMetrics metrics);
+}
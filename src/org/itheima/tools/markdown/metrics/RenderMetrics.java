@@ -0,0 +1,46 @@
+package org.itheima.tools.markdown.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process-wide registry of {@link RenderListener}s.
+ * <p>
+ * While no listener is registered {@link #begin(String)} hands out a disabled
+ * {@link DocumentMetrics} and the pipeline measures nothing.
+ */
+public final class RenderMetrics {
+
+    /** Measures nothing; handed out while no listener is registered. */
+    public static final DocumentMetrics DISABLED = new DocumentMetrics(null, false);
+
+    private static final List<RenderListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private RenderMetrics() {
+    }
+
+    public static void addListener(RenderListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(RenderListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    public static DocumentMetrics begin(String document) {
+        return LISTENERS.isEmpty() ? DISABLED : new DocumentMetrics(document, true);
+    }
+
+    public static void finish(DocumentMetrics metrics) {
+        if (!metrics.isEnabled()) {
+            return;
+        }
+        for (RenderListener listener : LISTENERS) {
+            try {
+                listener.documentRendered(metrics);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
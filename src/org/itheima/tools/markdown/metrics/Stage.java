@@ -0,0 +1,15 @@
+package org.itheima.tools.markdown.metrics;
+
+/**
+ * The fixed steps of {@code MarkdownUtils.toHtml}, in pipeline order.
+ */
+public enum Stage {
+    /** Reading and decoding the markdown input as UTF-8. */
+    READ,
+    /** {@code Markdown.parse}: markdown to body HTML, images included. */
+    PARSE,
+    /** Getting the page shell; only the first page pays for merging and encoding it. */
+    TEMPLATE,
+    /** Writing shell, title and body; the output size is the whole page in bytes. */
+    WRITE
+}
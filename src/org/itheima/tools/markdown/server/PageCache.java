@@ -0,0 +1,58 @@
+package org.itheima.tools.markdown.server;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Rendered pages by request, least recently used dropped first once their
+ * total size exceeds the bound.
+ */
+class PageCache {
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Page> pages = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    PageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized Page get(String key) {
+        return this.pages.get(key);
+    }
+
+    synchronized void put(String key, Page page) {
+        if (page.html.length > this.maxBytes / 4) {
+            return;
+        }
+        Page previous = this.pages.put(key, page);
+        if (previous != null) {
+            this.bytes -= previous.html.length;
+        }
+        this.bytes += page.html.length;
+        Iterator<Page> eldest = this.pages.values().iterator();
+        while (this.bytes > this.maxBytes && eldest.hasNext()) {
+            this.bytes -= eldest.next().html.length;
+            eldest.remove();
+        }
+    }
+
+    static final class Page {
+        final byte[] html;
+        /** Quoted strong entity tag. */
+        final String etag;
+        /** What the page was rendered from; a source page is stale once it differs. */
+        final String fingerprint;
+        /** The local images a source page refers to. */
+        final List<File> images;
+
+        Page(byte[] html, String etag, String fingerprint, List<File> images) {
+            this.html = html;
+            this.etag = etag;
+            this.fingerprint = fingerprint;
+            this.images = images;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package org.itheima.tools.markdown.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.itheima.tools.markdown.ImageOptions;
+import org.itheima.tools.markdown.MarkdownUtils;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves {@link MarkdownUtils} over HTTP:
+ * <ul>
+ * <li>{@code POST /render[?title=...]} renders the markdown in the request body;</li>
+ * <li>{@code GET /path/name.html} renders {@code path/name.md} below the source
+ * directory, and {@code GET /path/} lists a directory.</li>
+ * </ul>
+ * Pages carry a strong ETag, the SHA-256 of their bytes, and are kept in an
+ * in-memory LRU: a request whose {@code If-None-Match} names the cached page
+ * is answered {@code 304 Not Modified} without rendering. A page is rendered
+ * again once one of its images changed, a source page also once its markdown
+ * file did.
+ * <p>
+ * Requests run on a fixed pool; beyond it and a bounded backlog they are
+ * answered {@code 503} at once instead of queueing without limit. Images are
+ * only read from below the source directory, whoever wrote the markdown.
+ */
+public class RenderServer {
+
+    public static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    /** Largest markdown accepted by {@code POST /render}. */
+    public static final int MAX_REQUEST_BYTES = 16 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String HTML = "text/html; charset=UTF-8";
+
+    /** Set on the dispatcher thread while it answers a request the pool had no room for. */
+    private static final ThreadLocal<Boolean> OVERLOADED = new ThreadLocal<>();
+
+    private final InetSocketAddress address;
+    private final Path sourceDir;
+    private final int threads;
+    private final int backlog;
+    private final PageCache cache;
+    private HttpServer server;
+    private ExecutorService pool;
+
+    /**
+     * @param threads requests rendered at the same time
+     * @param backlog requests waiting for a thread before further ones are turned away
+     */
+    public RenderServer(InetSocketAddress address, File sourceDir, int threads, int backlog, long cacheBytes) {
+        this.address = address;
+        this.sourceDir = sourceDir.toPath().toAbsolutePath().normalize();
+        this.threads = Math.max(1, threads);
+        this.backlog = Math.max(0, backlog);
+        this.cache = new PageCache(cacheBytes);
+    }
+
+    public synchronized void start() throws IOException {
+        this.pool = Executors.newFixedThreadPool(this.threads, new WorkerFactory());
+        this.server = HttpServer.create(this.address, 0);
+        this.server.createContext("/", new Handler());
+        this.server.setExecutor(new BoundedExecutor(this.pool, this.threads + this.backlog));
+        this.server.start();
+    }
+
+    /**
+     * @param delaySeconds how long running requests may take to finish
+     */
+    public synchronized void stop(int delaySeconds) {
+        if (this.server != null) {
+            this.server.stop(delaySeconds);
+            this.pool.shutdown();
+            this.server = null;
+        }
+    }
+
+    /**
+     * The bound address, with the actual port when started on port 0.
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return this.server != null ? this.server.getAddress() : this.address;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        if (Boolean.TRUE.equals(OVERLOADED.get())) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendText(exchange, 503, "Too many requests");
+        } else if ("/render".equals(path)) {
+            if ("POST".equals(method)) {
+                render(exchange);
+            } else {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendText(exchange, 405, "Use POST");
+            }
+        } else if ("GET".equals(method) || "HEAD".equals(method)) {
+            serve(exchange, path);
+        } else {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            sendText(exchange, 405, "Use GET");
+        }
+    }
+
+    private void render(HttpExchange exchange) throws IOException {
+        byte[] markdown = readBody(exchange);
+        if (markdown == null) {
+            sendText(exchange, 413, "Markdown larger than " + MAX_REQUEST_BYTES + " bytes");
+            return;
+        }
+        String title = queryParameter(exchange, "title");
+        if (title == null) {
+            title = "document";
+        }
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        digest.update(title.getBytes(UTF_8));
+        digest.update((byte) 0);
+        digest.update(markdown);
+        String key = "POST " + Hex.encodeHexString(digest.digest());
+
+        PageCache.Page page = this.cache.get(key);
+        if (page == null || !page.fingerprint.equals(imagesFingerprint(page.images))) {
+            List<File> images = new ArrayList<>();
+            ByteArrayOutputStream html = new ByteArrayOutputStream(markdown.length * 2 + 512 * 1024);
+            MarkdownUtils.toHtml(new ByteArrayInputStream(markdown), html, title, this.sourceDir.toFile(), null,
+                    imageOptions(), images);
+            page = newPage(html.toByteArray(), imagesFingerprint(images), images);
+            this.cache.put(key, page);
+        }
+        sendPage(exchange, page);
+    }
+
+    private void serve(HttpExchange exchange, String path) throws IOException {
+        Path file = this.sourceDir.resolve(path.startsWith("/") ? path.substring(1) : path).normalize();
+        if (!file.startsWith(this.sourceDir)) {
+            sendText(exchange, 404, "Not found");
+        } else if (Files.isDirectory(file)) {
+            sendListing(exchange, file, path);
+        } else if (file.getFileName().toString().endsWith(".html")) {
+            String name = file.getFileName().toString();
+            String title = name.substring(0, name.length() - ".html".length());
+            Path markdown = file.resolveSibling(title + ".md");
+            if (Files.isRegularFile(markdown)) {
+                sendPage(exchange, sourcePage(markdown.toFile(), title));
+            } else {
+                sendText(exchange, 404, "Not found");
+            }
+        } else {
+            sendText(exchange, 404, "Not found");
+        }
+    }
+
+    /**
+     * The cached page of {@code markdown} if still current, else a fresh rendering.
+     */
+    private PageCache.Page sourcePage(File markdown, String title) throws IOException {
+        String key = "GET " + markdown.getPath();
+        PageCache.Page page = this.cache.get(key);
+        if (page != null && page.fingerprint.equals(fingerprint(markdown, page.images))) {
+            return page;
+        }
+        String fingerprint = fingerprint(markdown, Collections.<File>emptyList());
+        List<File> images = new ArrayList<>();
+        File root = MarkdownUtils.getImageOptions().getRoot();
+        ByteArrayOutputStream html = new ByteArrayOutputStream((int) Math.min(markdown.length() * 2 + 512 * 1024,
+                64 * 1024 * 1024));
+        MarkdownUtils.toHtml(new FileInputStream(markdown), html, title,
+                root != null ? root : markdown.getAbsoluteFile().getParentFile(), null, imageOptions(), images);
+        // the markdown's size and time are taken before rendering, so an edit meanwhile is rendered next time
+        page = newPage(html.toByteArray(), fingerprint + imagesFingerprint(images), images);
+        this.cache.put(key, page);
+        return page;
+    }
+
+    /**
+     * The current image options, confined to the source directory.
+     */
+    private ImageOptions imageOptions() {
+        return MarkdownUtils.getImageOptions().withConfinedTo(this.sourceDir.toFile());
+    }
+
+    private static PageCache.Page newPage(byte[] html, String fingerprint, List<File> images) {
+        return new PageCache.Page(html, "\"" + DigestUtils.sha256Hex(html) + "\"", fingerprint, images);
+    }
+
+    private static String fingerprint(File markdown, Collection<File> images) {
+        return markdown.length() + "|" + markdown.lastModified() + "\n" + imagesFingerprint(images);
+    }
+
+    private static String imagesFingerprint(Collection<File> images) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (File image : images) {
+            fingerprint.append(image.getPath()).append('|').append(image.isFile() ? image.length() : -1).append('|')
+                    .append(image.lastModified()).append('\n');
+        }
+        return fingerprint.toString();
+    }
+
+    private static void sendPage(HttpExchange exchange, PageCache.Page page) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", page.etag);
+        headers.set("Cache-Control", "no-cache");
+        if (matches(exchange.getRequestHeaders().get("If-None-Match"), page.etag)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        headers.set("Content-Type", HTML);
+        send(exchange, 200, page.html);
+    }
+
+    /**
+     * Whether an {@code If-None-Match} header names {@code etag}.
+     */
+    static boolean matches(List<String> ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String header : ifNoneMatch) {
+            for (String tag : header.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*") || tag.equals(etag) || tag.startsWith("W/") && tag.substring(2).equals(etag)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void sendListing(HttpExchange exchange, Path dir, String path) throws IOException {
+        List<String> dirs = new ArrayList<>();
+        List<String> pages = new ArrayList<>();
+        DirectoryStream<Path> entries = Files.newDirectoryStream(dir);
+        try {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (Files.isDirectory(entry) && !name.startsWith(".")) {
+                    dirs.add(name);
+                } else if (name.endsWith(".md") && Files.isRegularFile(entry)) {
+                    pages.add(name.substring(0, name.length() - ".md".length()));
+                }
+            }
+        } finally {
+            entries.close();
+        }
+        Collections.sort(dirs);
+        Collections.sort(pages);
+
+        String base = path.endsWith("/") ? path : path + "/";
+        StringBuilder html = new StringBuilder(256 + 64 * (dirs.size() + pages.size()));
+        html.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>")
+                .append(StringEscapeUtils.escapeHtml(base)).append("</title></head><body>\n<h1>")
+                .append(StringEscapeUtils.escapeHtml(base)).append("</h1>\n<ul>\n");
+        if (!dir.equals(this.sourceDir)) {
+            html.append("<li><a href=\"../\">../</a></li>\n");
+        }
+        for (String name : dirs) {
+            appendLink(html, base, name + "/", name + "/");
+        }
+        for (String name : pages) {
+            appendLink(html, base, name + ".html", name);
+        }
+        html.append("</ul>\n</body></html>\n");
+        exchange.getResponseHeaders().set("Content-Type", HTML);
+        send(exchange, 200, html.toString().getBytes(UTF_8));
+    }
+
+    private static void appendLink(StringBuilder html, String base, String target, String text) {
+        String href;
+        try {
+            href = new URI(null, null, base + target, null).toASCIIString();
+        } catch (URISyntaxException e) {
+            return;
+        }
+        html.append("<li><a href=\"").append(StringEscapeUtils.escapeHtml(href)).append("\">")
+                .append(StringEscapeUtils.escapeHtml(text)).append("</a></li>\n");
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        send(exchange, status, (text + "\n").getBytes(UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", Integer.toString(body.length));
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the request body, or null if it exceeds {@link #MAX_REQUEST_BYTES}
+     */
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null) {
+            try {
+                if (Long.parseLong(length.trim()) > MAX_REQUEST_BYTES) {
+                    return null;
+                }
+            } catch (NumberFormatException e) {
+                // read and count instead
+            }
+        }
+        InputStream in = exchange.getRequestBody();
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(8192);
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                if (body.size() + len > MAX_REQUEST_BYTES) {
+                    return null;
+                }
+                body.write(buffer, 0, len);
+            }
+            return body.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            int eq = parameter.indexOf('=');
+            if (eq > 0 && parameter.substring(0, eq).equals(name)) {
+                try {
+                    return URLDecoder.decode(parameter.substring(eq + 1), "UTF-8");
+                } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private class Handler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                RenderServer.this.handle(exchange);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                try {
+                    sendText(exchange, 500, "Internal server error");
+                } catch (IOException | RuntimeException ignored) {
+                    // response already started
+                }
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Hands requests to the pool while fewer than {@code limit} are running or
+     * waiting; any further one is answered by the calling dispatcher thread,
+     * which only has to send the 503.
+     */
+    private static class BoundedExecutor implements Executor {
+        private final Executor pool;
+        private final Semaphore permits;
+
+        BoundedExecutor(Executor pool, int limit) {
+            this.pool = pool;
+            this.permits = new Semaphore(limit);
+        }
+
+        public void execute(final Runnable task) {
+            if (!this.permits.tryAcquire()) {
+                OVERLOADED.set(Boolean.TRUE);
+                try {
+                    task.run();
+                } finally {
+                    OVERLOADED.remove();
+                }
+                return;
+            }
+            this.pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        BoundedExecutor.this.permits.release();
+                    }
+                }
+            });
+        }
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "md-http-" + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.itheima.tools.markdown;
+
+import org.itheima.tools.markdown.highlight.ScannerTest;
+import org.itheima.tools.markdown.impl.SplitMarkdownTest;
+import org.itheima.tools.markdown.server.RenderServerTest;
+
+/**
+ * Runs every test below {@code test/} in turn and stops at the first
+ * failure with exit status 1. The tests are plain classes with a
+ * {@code main}, so no framework is needed:
+ * <pre>
+ * javac -encoding UTF-8 -cp out:lib/* -d test-out $(find test -name '*.java')
+ * java -cp out:test-out:lib/* org.itheima.tools.markdown.AllTests
+ * </pre>
+ */
+public class AllTests {
+
+    public static void main(String[] args) throws Exception {
+        ScannerTest.main(args);
+        SplitMarkdownTest.main(args);
+        RenderCacheTest.main(args);
+        RenderServerTest.main(args);
+    }
+}
@@ -0,0 +1,232 @@
+package org.itheima.tools.markdown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.itheima.tools.markdown.metrics.DocumentMetrics;
+import org.itheima.tools.markdown.metrics.RenderListener;
+import org.itheima.tools.markdown.metrics.RenderMetrics;
+
+/**
+ * Checks that {@link RenderCache} hits only on the same bytes, options and
+ * images, reports unchanged pages, and evicts the least recently used
+ * entries past its bound. Runs without a test framework and exits with 1 on
+ * the first failure:
+ * <pre>
+ * java -cp out:test-out:lib/* org.itheima.tools.markdown.RenderCacheTest
+ * </pre>
+ */
+public class RenderCacheTest {
+
+    private static final String BODY = "<p>cached body</p>\n";
+
+    public static void main(String[] args) throws IOException {
+        File dir = Files.createTempDirectory("cache-test").toFile();
+        try {
+            hitAndMiss(new File(dir, "hit"));
+            imageChanges(new File(dir, "images"));
+            unreadableEntries(new File(dir, "broken"));
+            pageRecords(new File(dir, "pages"));
+            eviction(new File(dir, "evict"));
+            conversions(new File(dir, "convert"));
+        } finally {
+            delete(dir);
+        }
+        System.out.println("RenderCacheTest passed");
+    }
+
+    /**
+     * An entry is found under its own key only, with what was put.
+     */
+    static void hitAndMiss(File dir) {
+        RenderCache cache = new RenderCache(dir);
+        String key = cache.key(bytes("# Doc"), 5, "pegdown|options");
+        check(cache.get(key) == null, "empty cache hits");
+
+        cache.put(key, "pegdown", BODY, "<ul></ul>", Arrays.asList("a.png", "b.png"), Collections.<File>emptyList());
+        RenderCache.Entry entry = cache.get(key);
+        check(entry != null, "entry just put misses");
+        check(BODY.equals(entry.getBody().toString()), "body differs: " + entry.getBody());
+        check("<ul></ul>".equals(entry.getToc()), "toc differs: " + entry.getToc());
+        check("pegdown".equals(entry.getEngine()), "engine differs: " + entry.getEngine());
+        final List<String> replayed = new ArrayList<>();
+        entry.replay(new ImageResolver() {
+            public String resolve(String src) {
+                replayed.add(src);
+                return src;
+            }
+        });
+        check(Arrays.asList("a.png", "b.png").equals(replayed), "sources replayed as " + replayed);
+
+        check(cache.get(cache.key(bytes("# Doc!"), 6, "pegdown|options")) == null, "other markdown hits");
+        check(cache.get(cache.key(bytes("# Doc"), 5, "flexmark|options")) == null, "other options hit");
+        check(cache.get(cache.key(bytes("# Doc ignored"), 5, "pegdown|options")) != null,
+                "bytes past the length changed the key");
+        check(new RenderCache(dir).get(key) != null, "entry misses in another instance");
+    }
+
+    /**
+     * An entry is only used while the images it resolved are unchanged.
+     */
+    static void imageChanges(File dir) throws IOException {
+        RenderCache cache = new RenderCache(new File(dir, "cache"));
+        File image = new File(dir, "image.png");
+        File missing = new File(dir, "missing.png");
+        write(image, "png");
+        String key = cache.key(bytes("![](image.png)"), 14, "");
+        cache.put(key, "pegdown", BODY, null, Arrays.asList("image.png", "missing.png"), Arrays.asList(image, missing));
+        check(cache.get(key) != null, "entry with images misses");
+
+        write(image, "longer png");
+        check(cache.get(key) == null, "entry hits after its image changed");
+
+        cache.put(key, "pegdown", BODY, null, Arrays.asList("image.png", "missing.png"), Arrays.asList(image, missing));
+        check(cache.get(key) != null, "entry put again misses");
+        write(missing, "new");
+        check(cache.get(key) == null, "entry hits after a missing image appeared");
+    }
+
+    /**
+     * Truncated or foreign entry files count as missing.
+     */
+    static void unreadableEntries(File dir) throws IOException {
+        RenderCache cache = new RenderCache(dir);
+        String key = cache.key(bytes("text"), 4, "");
+        cache.put(key, "pegdown", BODY, null, Collections.<String>emptyList(), Collections.<File>emptyList());
+        File entry = entryFile(dir, key);
+        check(entry.isFile(), "no entry file at " + entry);
+
+        RandomAccessFile file = new RandomAccessFile(entry, "rw");
+        try {
+            file.setLength(file.length() - 4);
+        } finally {
+            file.close();
+        }
+        check(cache.get(key) == null, "truncated entry hits");
+
+        write(entry, "not an entry at all");
+        check(cache.get(key) == null, "foreign file hits");
+    }
+
+    /**
+     * A page counts as written until it is touched or written under another key.
+     */
+    static void pageRecords(File dir) throws IOException {
+        RenderCache cache = new RenderCache(new File(dir, "cache"));
+        File page = new File(dir, "page.html");
+        check(!cache.isWritten(page, "key"), "page never written counts as written");
+        write(page, "<html>");
+        cache.setWritten(page, "key");
+        check(cache.isWritten(page, "key"), "page just written counts as not written");
+        check(!cache.isWritten(page, "other"), "page counts as written under another key");
+
+        write(page, "<html>edited");
+        check(!cache.isWritten(page, "key"), "edited page counts as written");
+    }
+
+    /**
+     * Past the bound, the least recently used files go first, down to three quarters of it.
+     */
+    static void eviction(File dir) throws IOException {
+        RenderCache scratch = new RenderCache(new File(dir, "scratch"));
+        String scratchKey = scratch.key(bytes("scratch"), 7, "");
+        scratch.put(scratchKey, "pegdown", BODY, null, Collections.<String>emptyList(), Collections.<File>emptyList());
+        long entrySize = entryFile(new File(dir, "scratch"), scratchKey).length();
+
+        // three entries exceed it, two are within three quarters of it
+        File cacheDir = new File(dir, "cache");
+        RenderCache cache = new RenderCache(cacheDir, entrySize * 29 / 10);
+        String a = cache.key(bytes("a"), 1, "");
+        String b = cache.key(bytes("b"), 1, "");
+        String c = cache.key(bytes("c"), 1, "");
+        cache.put(a, "pegdown", BODY, null, Collections.<String>emptyList(), Collections.<File>emptyList());
+        cache.put(b, "pegdown", BODY, null, Collections.<String>emptyList(), Collections.<File>emptyList());
+        long now = System.currentTimeMillis();
+        check(entryFile(cacheDir, a).setLastModified(now - 20000), "cannot age entry a");
+        check(entryFile(cacheDir, b).setLastModified(now - 10000), "cannot age entry b");
+        check(cache.get(a) != null, "entry a misses before eviction");
+
+        cache.put(c, "pegdown", BODY, null, Collections.<String>emptyList(), Collections.<File>emptyList());
+        check(cache.get(b) == null, "least recently used entry b was kept");
+        check(cache.get(a) != null, "recently read entry a was evicted");
+        check(cache.get(c) != null, "new entry c was evicted");
+    }
+
+    /**
+     * Converting files through the cache renders, then reuses, then leaves the page alone.
+     */
+    static void conversions(File dir) throws IOException {
+        File markdown = new File(dir, "doc.md");
+        File page = new File(dir, "doc.html");
+        write(markdown, "# Title\n\nSome *text*.\n");
+        final List<String> results = new ArrayList<>();
+        RenderListener listener = new RenderListener() {
+            public void documentRendered(DocumentMetrics metrics) {
+                results.add(metrics.getCache());
+            }
+        };
+        RenderMetrics.addListener(listener);
+        MarkdownUtils.setRenderCache(new RenderCache(new File(dir, "cache")));
+        try {
+            MarkdownUtils.toHtml(markdown, page);
+            String first = new String(Files.readAllBytes(page.toPath()), "UTF-8");
+            long written = page.lastModified();
+            MarkdownUtils.toHtml(markdown, page);
+            check(page.lastModified() == written, "unchanged page was written again");
+
+            check(page.delete(), "cannot delete the page");
+            MarkdownUtils.toHtml(markdown, page);
+            String again = new String(Files.readAllBytes(page.toPath()), "UTF-8");
+            check(first.equals(again), "page from the cache differs from the rendered one");
+
+            write(markdown, "# Title\n\nOther *text*.\n");
+            MarkdownUtils.toHtml(markdown, page);
+            check(new String(Files.readAllBytes(page.toPath()), "UTF-8").contains("Other"), "edited document not rendered");
+        } finally {
+            MarkdownUtils.setRenderCache(null);
+            RenderMetrics.removeListener(listener);
+        }
+        List<String> expected = Arrays.asList(RenderCache.MISS, RenderCache.UNCHANGED, RenderCache.HIT, RenderCache.MISS);
+        check(expected.equals(results), "cache results " + results + ", expected " + expected);
+    }
+
+    private static File entryFile(File dir, String key) {
+        return new File(new File(dir, key.substring(0, 2)), key + ".entry");
+    }
+
+    private static byte[] bytes(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), bytes(content));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            System.err.println(message);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.itheima.tools.markdown.highlight;
+
+import java.util.Random;
+
+/**
+ * Checks that {@link Scanner} only adds markup: with its spans removed and
+ * its entities decoded, the output is the code it was given, for every
+ * {@link Language}. Runs without a test framework and exits with 1 on the
+ * first difference:
+ * <pre>
+ * java -cp out:test-out:lib/* org.itheima.tools.markdown.highlight.ScannerTest
+ * </pre>
+ */
+public class ScannerTest {
+
+    private static final String[] SAMPLES = {
+            "- apple\n- \"pear\"\n- *ref\n- key: value\n-  spaced\n- # comment\n- [a, b]\n- {a: 1}\n",
+            "key: value\n  nested: \"quoted\" # note\nlist:\n  - a\n  - b: c\n: odd\n",
+            "[section]\nname = value\n; comment\n# comment\n=odd\n",
+            "public class A { /* c */ @Override int f(String s) { return s.length() + 0x1F; } } // end\n",
+            "echo $HOME ${PATH} a#b $1 # comment\n'single' \"double $x\"\n",
+            "def f(x):\n    \"\"\"doc\"\"\"\n    return x * 1.5e-3\n",
+            "<a href=\"x\" title='y'>text &amp; <b>bold</b></a><!-- c --><![CDATA[ <x> ]]><?xml?>\n",
+            ".a #b:hover, p::after { color: #fff; margin: -1.5em !important; } @media x { }\n",
+            "\"unterminated\n'also\n/* open comment\n<open tag\n${open\n",
+    };
+
+    /** Characters the scanners treat specially, plus plain text. */
+    private static final String ALPHABET = "-:= \t\r\n\"'`#/*[]{}<>&@$.!;?%0123456789abcxyzABC_\\";
+
+    private static final int RANDOM_INPUTS = 20000;
+
+    public static void main(String[] args) {
+        Random random = new Random(17);
+        for (Language language : Language.values()) {
+            for (String sample : SAMPLES) {
+                assertRoundTrip(language, sample);
+            }
+            for (int i = 0; i < RANDOM_INPUTS; i++) {
+                char[] code = new char[random.nextInt(24)];
+                for (int j = 0; j < code.length; j++) {
+                    code[j] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+                }
+                assertRoundTrip(language, new String(code));
+            }
+        }
+        System.out.println("ScannerTest passed");
+    }
+
+    private static void assertRoundTrip(Language language, String code) {
+        StringBuilder html = new StringBuilder();
+        Scanner.highlight(language, code, html);
+        String text = text(html);
+        if (!text.equals(code)) {
+            System.err.println(language.name + ": highlighted text differs\ncode: " + escape(code)
+                    + "\ntext: " + escape(text) + "\nhtml: " + escape(html.toString()));
+            System.exit(1);
+        }
+    }
+
+    /** The text of the markup: tags dropped, the entities the scanner writes decoded. */
+    private static String text(CharSequence html) {
+        String text = html.toString().replaceAll("<[^>]*>", "");
+        return text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&amp;", "&");
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+    }
+}
@@ -0,0 +1,148 @@
+package org.itheima.tools.markdown.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import org.itheima.tools.markdown.Engine;
+import org.itheima.tools.markdown.FileImageResolver;
+import org.itheima.tools.markdown.ImageCache;
+import org.itheima.tools.markdown.ImageOptions;
+import org.itheima.tools.markdown.Markdown;
+import org.itheima.tools.markdown.RenderContext;
+
+/**
+ * Checks that {@link SplitMarkdown} writes the same page as its engine
+ * rendering the document whole, for every engine. Runs without a test
+ * framework and exits with 1 on the first difference:
+ * <pre>
+ * java -cp out:test-out:lib/* org.itheima.tools.markdown.impl.SplitMarkdownTest
+ * </pre>
+ */
+public class SplitMarkdownTest {
+
+    /** Small enough to cut the test documents after nearly every paragraph. */
+    private static final int PIECE_CHARS = 16;
+
+    public static void main(String[] args) throws IOException {
+        File dir = Files.createTempDirectory("split-test").toFile();
+        try {
+            write(new File(dir, "shared.png"), "shared");
+            write(new File(dir, "once.png"), "once");
+            for (Engine engine : Engine.values()) {
+                Markdown markdown = engine.create();
+                rawHtmlBlocks(markdown, dir);
+                imagesWithDedupe(markdown, dir);
+                markerCharacters(markdown, dir);
+            }
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+        System.out.println("SplitMarkdownTest passed");
+    }
+
+    /**
+     * Closing tags inside raw text elements and comments do not end the HTML block around them.
+     */
+    static void rawHtmlBlocks(Markdown markdown, File dir) throws IOException {
+        String doc = paragraphs("Before")
+                + "<script>\nvar s = \"</div>\";\n\nfoo = 1;\n</script>\n\n"
+                + paragraphs("Script")
+                + "<div>\n<style>\np:after { content: \"</div>\"; }\n\nbody { margin: 0 }\n</style>\n</div>\n\n"
+                + paragraphs("Style")
+                + "<pre>\nend </div>\n\nkept *as is*\n</pre>\n\n"
+                + paragraphs("Pre")
+                + "<textarea rows='2' title='a > b'>\nend </div>\n\ntext\n</textarea>\n\n"
+                + paragraphs("Textarea")
+                + "<!-- </div>\n\nhidden -->\n\n"
+                + paragraphs("After");
+        assertSplit(doc);
+        assertSameAsWhole(markdown, doc, dir, ImageOptions.DEFAULT, "raw HTML blocks");
+
+        // only some engines take a textarea for raw text, and the others see a block open here
+        String tagLine = paragraphs("Before") + "<textarea>\n</div>\n\ntext\n</textarea>\n\n" + paragraphs("After");
+        assertSameAsWhole(markdown, tagLine, dir, ImageOptions.DEFAULT, "block tag in raw HTML");
+    }
+
+    /**
+     * Images are numbered and deduplicated over the whole page, not per piece.
+     */
+    static void imagesWithDedupe(Markdown markdown, File dir) throws IOException {
+        String doc = paragraphs("First") + "Image ![a](shared.png) and ![b](shared.png)\n\n"
+                + paragraphs("Second") + "Once ![c](once.png)\n\n"
+                + paragraphs("Third") + "Again ![d](shared.png) by [reference][img]\n\n"
+                + paragraphs("Fourth") + "![e][img]\n\n"
+                + "[img]: shared.png\n";
+        assertSplit(doc);
+        assertSameAsWhole(markdown, doc, dir, ImageOptions.DEFAULT.withDedupe(true), "images with dedupe");
+        assertSameAsWhole(markdown, doc, dir, ImageOptions.DEFAULT, "images");
+    }
+
+    /**
+     * The characters marking a piece's images may occur in the text itself.
+     */
+    static void markerCharacters(Markdown markdown, File dir) throws IOException {
+        String doc = paragraphs("Marked") + "Text \uE002 with \uE0031\uE003 markers ![a](shared.png)\n\n"
+                + paragraphs("Unmarked");
+        assertSameAsWhole(markdown, doc, dir, ImageOptions.DEFAULT.withDedupe(true), "marker characters");
+    }
+
+    private static void assertSplit(String doc) {
+        BlockSplitter.Split split = BlockSplitter.split(doc, PIECE_CHARS);
+        if (split == null || split.size() < 3) {
+            fail("test document is not split:\n" + doc);
+        }
+    }
+
+    private static void assertSameAsWhole(Markdown markdown, String doc, File dir, ImageOptions options, String what)
+            throws IOException {
+        String whole = page(markdown, doc, dir, options);
+        String split = page(new SplitMarkdown(markdown, 0, PIECE_CHARS), doc, dir, options);
+        if (!whole.equals(split)) {
+            int at = 0;
+            while (at < whole.length() && at < split.length() && whole.charAt(at) == split.charAt(at)) {
+                at++;
+            }
+            fail(Engine.nameOf(markdown) + ", " + what + ": split output differs at " + at + "\nwhole: "
+                    + excerpt(whole, at) + "\nsplit: " + excerpt(split, at));
+        }
+    }
+
+    /**
+     * The body as a page writes it: placeholders replaced, footer script included.
+     */
+    private static String page(Markdown markdown, String doc, File dir, ImageOptions options) throws IOException {
+        FileImageResolver images = new FileImageResolver(dir, null, options, ImageCache.shared());
+        StringBuilder body = new StringBuilder();
+        markdown.render(doc, body, new RenderContext(images));
+        body.append(images.footer());
+        StringWriter page = new StringWriter();
+        Writer out = images.wrap(page);
+        out.append(body);
+        out.flush();
+        return page.toString();
+    }
+
+    private static String paragraphs(String name) {
+        return "# " + name + "\n\n" + name + " paragraph, *emphasis* and `code`.\n\n"
+                + "Second " + name.toLowerCase() + " paragraph\nover two lines.\n\n";
+    }
+
+    private static String excerpt(String html, int at) {
+        return html.substring(Math.max(0, at - 60), Math.min(html.length(), at + 60)).replace("\n", "\\n");
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+    }
+
+    private static void fail(String message) {
+        System.err.println(message);
+        System.exit(1);
+    }
+}
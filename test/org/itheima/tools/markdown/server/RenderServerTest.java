@@ -0,0 +1,179 @@
+package org.itheima.tools.markdown.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Checks that {@link RenderServer} tags pages with an ETag, answers a
+ * matching {@code If-None-Match} with {@code 304}, and changes the tag once
+ * the markdown changed. Runs without a test framework and exits with 1 on
+ * the first failure:
+ * <pre>
+ * java -cp out:test-out:lib/* org.itheima.tools.markdown.server.RenderServerTest
+ * </pre>
+ */
+public class RenderServerTest {
+
+    public static void main(String[] args) throws IOException {
+        matching();
+        File dir = Files.createTempDirectory("server-test").toFile();
+        RenderServer server = new RenderServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), dir, 2, 4,
+                RenderServer.DEFAULT_CACHE_BYTES);
+        server.start();
+        try {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            sourcePages(base, new File(dir, "doc.md"));
+            postedPages(base);
+        } finally {
+            server.stop(0);
+            delete(dir);
+        }
+        System.out.println("RenderServerTest passed");
+    }
+
+    /**
+     * {@code If-None-Match} lists match strong and weak forms of the tag, and any tag for {@code *}.
+     */
+    static void matching() {
+        String etag = "\"abc\"";
+        check(!RenderServer.matches(null, etag), "no header matches");
+        check(RenderServer.matches(Collections.singletonList("\"abc\""), etag), "same tag does not match");
+        check(RenderServer.matches(Collections.singletonList("W/\"abc\""), etag), "weak tag does not match");
+        check(RenderServer.matches(Collections.singletonList("\"x\", \"abc\""), etag), "tag in a list does not match");
+        check(RenderServer.matches(Arrays.asList("\"x\"", "\"abc\""), etag), "tag in a second header does not match");
+        check(RenderServer.matches(Collections.singletonList("*"), etag), "* does not match");
+        check(!RenderServer.matches(Collections.singletonList("\"abcd\""), etag), "other tag matches");
+        check(!RenderServer.matches(Collections.singletonList("abc"), etag), "unquoted tag matches");
+    }
+
+    /**
+     * A source page keeps its tag until its markdown changes.
+     */
+    static void sourcePages(String base, File markdown) throws IOException {
+        write(markdown, "# Title\n\nSome *text*.\n");
+        Response first = request("GET", base + "/doc.html", null, null);
+        check(first.status == 200, "GET answered " + first.status);
+        check(first.etag != null && first.etag.startsWith("\"") && first.etag.endsWith("\""),
+                "no strong ETag: " + first.etag);
+        check(first.body.contains("<em>text</em>"), "page not rendered: " + first.body);
+
+        Response again = request("GET", base + "/doc.html", null, null);
+        check(first.etag.equals(again.etag), "tag changed without an edit: " + again.etag);
+        check(first.body.equals(again.body), "page changed without an edit");
+
+        Response unchanged = request("GET", base + "/doc.html", first.etag, null);
+        check(unchanged.status == 304, "matching If-None-Match answered " + unchanged.status);
+        check(first.etag.equals(unchanged.etag), "304 carries another tag: " + unchanged.etag);
+        check(unchanged.body.isEmpty(), "304 has a body");
+        check(request("GET", base + "/doc.html", "W/" + first.etag, null).status == 304, "weak tag not matched");
+        check(request("GET", base + "/doc.html", "\"other\"", null).status == 200, "other tag answered with 304");
+
+        Response head = request("HEAD", base + "/doc.html", null, null);
+        check(head.status == 200 && first.etag.equals(head.etag), "HEAD answered " + head.status + " " + head.etag);
+
+        write(markdown, "# Title\n\nOther *text* now.\n");
+        check(markdown.setLastModified(System.currentTimeMillis() + 10000), "cannot touch the markdown");
+        Response edited = request("GET", base + "/doc.html", first.etag, null);
+        check(edited.status == 200, "old tag answered " + edited.status + " after an edit");
+        check(!first.etag.equals(edited.etag), "tag unchanged after an edit");
+        check(edited.body.contains("Other"), "edit not rendered");
+
+        check(request("GET", base + "/missing.html", null, null).status == 404, "missing page found");
+        check(request("GET", base + "/doc.md", null, null).status == 404, "markdown served");
+        Response listing = request("GET", base + "/", null, null);
+        check(listing.status == 200 && listing.body.contains("href=\"/doc.html\""), "page not listed: " + listing.body);
+    }
+
+    /**
+     * A posted document is tagged by its bytes and title.
+     */
+    static void postedPages(String base) throws IOException {
+        Response first = request("POST", base + "/render?title=Posted", null, "# Posted\n");
+        check(first.status == 200, "POST answered " + first.status);
+        check(first.etag != null, "no ETag on a posted page");
+        check(first.body.contains("Posted"), "posted page not rendered");
+
+        Response unchanged = request("POST", base + "/render?title=Posted", first.etag, "# Posted\n");
+        check(unchanged.status == 304, "matching If-None-Match answered " + unchanged.status);
+
+        Response retitled = request("POST", base + "/render?title=Other", first.etag, "# Posted\n");
+        check(retitled.status == 200 && !first.etag.equals(retitled.etag), "title did not change the tag");
+        Response edited = request("POST", base + "/render?title=Posted", first.etag, "# Posted!\n");
+        check(edited.status == 200 && !first.etag.equals(edited.etag), "markdown did not change the tag");
+
+        check(request("GET", base + "/render", null, null).status == 405, "GET /render allowed");
+    }
+
+    private static Response request(String method, String url, String ifNoneMatch, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setUseCaches(false);
+        if (ifNoneMatch != null) {
+            connection.setRequestProperty("If-None-Match", ifNoneMatch);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+        }
+        Response response = new Response();
+        response.status = connection.getResponseCode();
+        response.etag = connection.getHeaderField("ETag");
+        InputStream in = response.status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (in != null) {
+            try {
+                byte[] buffer = new byte[8192];
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, len);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        response.body = new String(bytes.toByteArray(), "UTF-8");
+        return response;
+    }
+
+    private static class Response {
+        int status;
+        String etag;
+        String body;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            System.err.println(message);
+            System.exit(1);
+        }
+    }
+}